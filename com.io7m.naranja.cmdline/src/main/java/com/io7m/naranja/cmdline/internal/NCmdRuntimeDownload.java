@@ -21,9 +21,16 @@ import com.beust.jcommander.Parameters;
 import com.io7m.claypot.core.CLPAbstractCommand;
 import com.io7m.claypot.core.CLPCommandContextType;
 import com.io7m.naranja.core.NException;
+import com.io7m.naranja.core.NRuntimeDownloadProgress;
 import com.io7m.naranja.runtimes.NRuntimeInventories;
+import com.io7m.naranja.runtimes.NRuntimeInventoryConfiguration;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
 
 import static com.io7m.claypot.core.CLPCommandType.Status.SUCCESS;
+import static com.io7m.naranja.core.NErrorCodes.errorIo;
+import static java.util.Objects.requireNonNullElse;
 
 /**
  * The "runtime-download" command.
@@ -39,6 +46,19 @@ public final class NCmdRuntimeDownload extends CLPAbstractCommand
   )
   private String runtimeId;
 
+  @Parameter(
+    names = "--segments",
+    description = "The maximum number of byte ranges downloaded concurrently",
+    required = false
+  )
+  private int segments = 1;
+
+  @Parameter(
+    names = "--offline",
+    description = "Answer remote queries from the catalog cache only"
+  )
+  private boolean offline;
+
   /**
    * Construct a command.
    *
@@ -60,7 +80,13 @@ public final class NCmdRuntimeDownload extends CLPAbstractCommand
     final var directories =
       NApplicationConfiguration.applicationDirectories();
 
-    try (var inventory = inventories.open(directories.cacheDirectory())) {
+    final var configuration =
+      NRuntimeInventoryConfiguration.defaults()
+        .withDownloadSegments(this.segments)
+        .withOffline(this.offline);
+
+    try (var inventory =
+           inventories.open(directories.cacheDirectory(), configuration)) {
       final var runtime =
         inventory.runtimeFind(this.runtimeId);
       final var download =
@@ -68,20 +94,40 @@ public final class NCmdRuntimeDownload extends CLPAbstractCommand
 
       this.logger().info("Downloading {}", runtime.source());
 
-      while (!download.future().isDone()) {
-        this.logger()
-          .info(
-            "{}/{} ({}%}",
-            Long.toUnsignedString(download.sizeReceived()),
-            Long.toUnsignedString(download.sizeExpected()),
-            String.format("%.1f", Double.valueOf(download.progress() * 100.0))
-          );
-        Thread.sleep(1_000L);
+      try (var subscription =
+             download.subscribe(Duration.ofSeconds(1L), this::showProgress)) {
+        download.future().get();
+      } catch (final ExecutionException e) {
+        throw new NException(
+          requireNonNullElse(
+            e.getCause().getMessage(),
+            e.getCause().getClass().getSimpleName()),
+          e.getCause(),
+          errorIo()
+        );
       }
     }
     return SUCCESS;
   }
 
+  private void showProgress(
+    final NRuntimeDownloadProgress progress)
+  {
+    this.logger()
+      .info(
+        "{}/{} ({}%) {} KiB/s, {}s remaining",
+        Long.toUnsignedString(progress.sizeReceived()),
+        Long.toUnsignedString(progress.sizeExpected()),
+        String.format("%.1f", Double.valueOf(progress.progress() * 100.0)),
+        String.format(
+          "%.1f",
+          Double.valueOf(progress.octetsPerSecond() / 1024.0)),
+        progress.remaining()
+          .map(d -> Long.toString(d.toSeconds()))
+          .orElse("?")
+      );
+  }
+
   @Override
   public String name()
   {
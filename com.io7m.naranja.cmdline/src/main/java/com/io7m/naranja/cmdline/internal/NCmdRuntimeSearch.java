@@ -26,6 +26,7 @@ import com.io7m.naranja.core.NOperatingSystem;
 import com.io7m.naranja.core.NRuntime;
 import com.io7m.naranja.core.NRuntimeDistribution;
 import com.io7m.naranja.runtimes.NRuntimeInventories;
+import com.io7m.naranja.runtimes.NRuntimeInventoryConfiguration;
 import com.io7m.naranja.core.NRuntimeInventoryType;
 
 import java.util.List;
@@ -64,6 +65,12 @@ public final class NCmdRuntimeSearch extends CLPAbstractCommand
   )
   private int version = 17;
 
+  @Parameter(
+    names = "--offline",
+    description = "Answer remote queries from the catalog cache only"
+  )
+  private boolean offline;
+
   private List<NRuntimeDistribution> distributionsT;
   private List<NArchitecture> architecturesT;
   private List<NOperatingSystem> operatingSystemsT;
@@ -105,7 +112,12 @@ public final class NCmdRuntimeSearch extends CLPAbstractCommand
     final var directories =
       NApplicationConfiguration.applicationDirectories();
 
-    try (var inventory = inventories.open(directories.cacheDirectory())) {
+    final var configuration =
+      NRuntimeInventoryConfiguration.defaults()
+        .withOffline(this.offline);
+
+    try (var inventory =
+           inventories.open(directories.cacheDirectory(), configuration)) {
       this.showHeader();
       this.showLocalRuntimes(inventory);
       this.showRemoteRuntimes(inventory);
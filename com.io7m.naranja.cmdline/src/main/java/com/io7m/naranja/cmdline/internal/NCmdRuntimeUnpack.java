@@ -21,9 +21,12 @@ import com.beust.jcommander.Parameters;
 import com.io7m.claypot.core.CLPAbstractCommand;
 import com.io7m.claypot.core.CLPCommandContextType;
 import com.io7m.naranja.core.NException;
+import com.io7m.naranja.core.NFileHashListenerType;
+import com.io7m.naranja.core.NRuntimeUnpackFilter;
 import com.io7m.naranja.runtimes.NRuntimeInventories;
 
 import java.nio.file.Path;
+import java.util.List;
 
 import static com.io7m.claypot.core.CLPCommandType.Status.SUCCESS;
 
@@ -48,6 +51,18 @@ public final class NCmdRuntimeUnpack extends CLPAbstractCommand
   )
   private Path outputDirectory;
 
+  @Parameter(
+    names = "--include",
+    description = "A glob selecting files to unpack (may be repeated)"
+  )
+  private List<String> includes = List.of();
+
+  @Parameter(
+    names = "--exclude",
+    description = "A glob selecting files not to unpack (may be repeated)"
+  )
+  private List<String> excludes = List.of();
+
   /**
    * Construct a command.
    *
@@ -74,7 +89,12 @@ public final class NCmdRuntimeUnpack extends CLPAbstractCommand
 
     try (var inventory = inventories.open(directories.cacheDirectory())) {
       final var runtime = inventory.runtimeFind(this.runtimeId);
-      inventory.runtimeUnpack(runtime, this.outputDirectory);
+      inventory.runtimeUnpack(
+        runtime,
+        this.outputDirectory,
+        new NRuntimeUnpackFilter(this.includes, this.excludes),
+        NFileHashListenerType.ignoring()
+      );
     }
     return SUCCESS;
   }
@@ -162,6 +162,24 @@ public interface NApplicationBuilderType
     Set<String> modules)
     throws NException;
 
+  /**
+   * Specify the filter that selects the files unpacked from the given
+   * runtime. The filter does not apply to runtimes that are minimized, as
+   * minimized runtimes are produced by {@code jlink} rather than unpacked.
+   *
+   * @param runtime The runtime
+   * @param filter  The filter
+   *
+   * @return this
+   *
+   * @throws NException On errors
+   */
+
+  NApplicationBuilderType runtimeSetUnpackFilter(
+    NRuntime runtime,
+    NRuntimeUnpackFilter filter)
+    throws NException;
+
   /**
    * @return An immutable application
    *
@@ -76,6 +76,15 @@ public interface NApplicationType
   Optional<Set<String>> runtimeMinimizedModules(
     NRuntime runtime);
 
+  /**
+   * @param runtime The runtime
+   *
+   * @return The filter that selects the files unpacked from the runtime
+   */
+
+  NRuntimeUnpackFilter runtimeUnpackFilter(
+    NRuntime runtime);
+
   /**
    * @param artifact The artifact
    *
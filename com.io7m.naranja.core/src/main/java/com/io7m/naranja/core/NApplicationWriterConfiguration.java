@@ -25,12 +25,24 @@ import java.util.Objects;
  * @param outputDirectory The output directory
  * @param inventory       The inventory
  * @param application     The application
+ * @param copyParallelism    The maximum number of files copied
+ *                           concurrently
+ * @param runtimeParallelism The maximum number of runtimes unpacked
+ *                           concurrently
+ * @param copyStrategy       The strategy used to copy files
+ * @param incremental        {@code true} if outputs that have not changed
+ *                           since the previous run should not be written
+ *                           again
  */
 
 public record NApplicationWriterConfiguration(
   Path outputDirectory,
   NRuntimeInventoryType inventory,
-  NApplicationType application)
+  NApplicationType application,
+  int copyParallelism,
+  int runtimeParallelism,
+  NApplicationWriterCopyStrategy copyStrategy,
+  boolean incremental)
 {
   /**
    * A writer configuration.
@@ -38,6 +50,14 @@ public record NApplicationWriterConfiguration(
    * @param outputDirectory The output directory
    * @param inventory       The inventory
    * @param application     The application
+   * @param copyParallelism    The maximum number of files copied
+   *                           concurrently
+   * @param runtimeParallelism The maximum number of runtimes unpacked
+   *                           concurrently
+   * @param copyStrategy       The strategy used to copy files
+   * @param incremental        {@code true} if outputs that have not changed
+   *                           since the previous run should not be written
+   *                           again
    */
 
   public NApplicationWriterConfiguration
@@ -45,5 +65,64 @@ public record NApplicationWriterConfiguration(
     Objects.requireNonNull(outputDirectory, "output");
     Objects.requireNonNull(inventory, "inventory");
     Objects.requireNonNull(application, "application");
+    Objects.requireNonNull(copyStrategy, "copyStrategy");
+
+    if (copyParallelism < 1) {
+      throw new IllegalArgumentException(
+        "Copy parallelism must be >= 1 (received %d)"
+          .formatted(Integer.valueOf(copyParallelism))
+      );
+    }
+
+    if (runtimeParallelism < 1) {
+      throw new IllegalArgumentException(
+        "Runtime parallelism must be >= 1 (received %d)"
+          .formatted(Integer.valueOf(runtimeParallelism))
+      );
+    }
+  }
+
+  /**
+   * A non-incremental writer configuration that copies files byte-for-byte
+   * and unpacks runtimes using one thread per available processor.
+   *
+   * @param inOutputDirectory The output directory
+   * @param inInventory       The inventory
+   * @param inApplication     The application
+   */
+
+  public NApplicationWriterConfiguration(
+    final Path inOutputDirectory,
+    final NRuntimeInventoryType inInventory,
+    final NApplicationType inApplication)
+  {
+    this(
+      inOutputDirectory,
+      inInventory,
+      inApplication,
+      defaultCopyParallelism(),
+      defaultRuntimeParallelism(),
+      NApplicationWriterCopyStrategy.COPY,
+      false
+    );
+  }
+
+  /**
+   * @return The default copy parallelism (the number of available processors)
+   */
+
+  public static int defaultCopyParallelism()
+  {
+    return Math.max(1, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @return The default runtime parallelism (the number of available
+   * processors)
+   */
+
+  public static int defaultRuntimeParallelism()
+  {
+    return Math.max(1, Runtime.getRuntime().availableProcessors());
   }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.naranja.core;
+
+/**
+ * The strategy used to place library artifacts and extra files into the
+ * output directory.
+ */
+
+public enum NApplicationWriterCopyStrategy
+{
+  /**
+   * Files are copied byte-for-byte.
+   */
+
+  COPY,
+
+  /**
+   * Files are hardlinked to their sources. If a hardlink cannot be created
+   * (for example, because the source and target are on different
+   * filesystems), the file is copied instead. Files that must have their
+   * permissions changed in the output are always copied, as changing the
+   * permissions of a hardlink would change the permissions of the source.
+   */
+
+  HARDLINK,
+
+  /**
+   * Files are copied using the kernel's copy offloading facilities. On
+   * filesystems that support shared extents (such as btrfs and XFS on Linux),
+   * this results in a copy-on-write clone of the source file. Elsewhere,
+   * the file is copied byte-for-byte.
+   */
+
+  REFLINK_OR_COPY
+}
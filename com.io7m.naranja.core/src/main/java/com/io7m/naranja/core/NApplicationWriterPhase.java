@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.core;
+
+/**
+ * The phases of writing an application, in the order in which they are
+ * executed.
+ */
+
+public enum NApplicationWriterPhase
+{
+  /**
+   * Libraries are being copied.
+   */
+
+  COPY_LIBRARIES,
+
+  /**
+   * Runtimes are being unpacked.
+   */
+
+  UNPACK_RUNTIMES,
+
+  /**
+   * Extra files are being copied.
+   */
+
+  COPY_EXTRAS,
+
+  /**
+   * Files that were not hashed while being written are being hashed.
+   */
+
+  HASH,
+
+  /**
+   * The manifest is being written.
+   */
+
+  MANIFEST
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.core;
+
+import java.time.Duration;
+
+/**
+ * The progress of writing an application. A progress value is delivered
+ * when a phase starts, each time a file in the phase is completed, and when
+ * the phase ends.
+ */
+
+public interface NApplicationWriterProgressType
+{
+  /**
+   * @return The current phase
+   */
+
+  NApplicationWriterPhase phase();
+
+  /**
+   * @return {@code true} if the current phase has ended
+   */
+
+  boolean phaseCompleted();
+
+  /**
+   * @return The time elapsed since the current phase started
+   */
+
+  Duration phaseElapsed();
+
+  /**
+   * @return The total number of files expected in the current phase (each
+   * runtime counts as one file)
+   */
+
+  long fileCount();
+
+  /**
+   * @return The number of files completed in the current phase
+   */
+
+  long fileIndex();
+
+  /**
+   * @return The name of the most recently completed file, or the empty
+   * string if no file has been completed
+   */
+
+  String fileName();
+
+  /**
+   * @return The number of bytes written or hashed in the current phase
+   */
+
+  long byteCount();
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.naranja.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * The state of a previous run of an application writer, used to skip work
+ * in incremental mode. Entries are keyed by paths relative to the
+ * application directory. The state also holds the hashes of files written
+ * during the current run, so that the manifest does not need to read them
+ * back.
+ */
+
+final class NApplicationWriterState
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(NApplicationWriterState.class);
+
+  private static final String PREFIX_FILE = "file.";
+  private static final String PREFIX_HASH = "hash.";
+  private static final String PREFIX_RUNTIME = "runtime.";
+
+  private final Map<String, String> previous;
+  private final Map<String, String> current;
+
+  private NApplicationWriterState(
+    final Map<String, String> inPrevious)
+  {
+    this.previous =
+      Map.copyOf(Objects.requireNonNull(inPrevious, "previous"));
+    this.current =
+      new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @return An empty state
+   */
+
+  static NApplicationWriterState empty()
+  {
+    return new NApplicationWriterState(Map.of());
+  }
+
+  /**
+   * Load the state from the given file. A missing or unreadable file
+   * yields an empty state.
+   *
+   * @param file The file
+   *
+   * @return The state
+   */
+
+  static NApplicationWriterState load(
+    final Path file)
+  {
+    final var props = new Properties();
+    try (var stream = Files.newInputStream(file)) {
+      props.load(stream);
+    } catch (final Exception e) {
+      LOG.debug("state {}: {}", file, e.toString());
+      return empty();
+    }
+
+    final var entries = new TreeMap<String, String>();
+    for (final var name : props.stringPropertyNames()) {
+      entries.put(name, props.getProperty(name));
+    }
+    return new NApplicationWriterState(entries);
+  }
+
+  /**
+   * Save the current state to the given file.
+   *
+   * @param file The file
+   *
+   * @throws IOException On errors
+   */
+
+  void save(
+    final Path file)
+    throws IOException
+  {
+    final var props = new Properties();
+    props.putAll(this.current);
+
+    final var temporary =
+      file.resolveSibling(file.getFileName() + ".tmp");
+
+    try (var stream = Files.newOutputStream(temporary)) {
+      props.store(stream, "");
+    }
+    Files.move(temporary, file, REPLACE_EXISTING, ATOMIC_MOVE);
+  }
+
+  private static String timeOf(
+    final Path file)
+    throws IOException
+  {
+    return Long.toString(
+      Files.getLastModifiedTime(file).to(TimeUnit.MICROSECONDS)
+    );
+  }
+
+  private static String fileIdentity(
+    final Path source,
+    final Path target,
+    final String mode)
+    throws IOException
+  {
+    return String.join(
+      ":",
+      Long.toUnsignedString(Files.size(source)),
+      timeOf(source),
+      Long.toUnsignedString(Files.size(target)),
+      timeOf(target),
+      mode,
+      source.toAbsolutePath().toString()
+    );
+  }
+
+  /**
+   * Determine if the file at {@code target} was produced from {@code source}
+   * in the given mode by the previous run, and neither file has changed
+   * since. If so, the file is carried over into the current state.
+   *
+   * @param name   The file name
+   * @param source The source file
+   * @param target The target file
+   * @param mode   The copy mode
+   *
+   * @return {@code true} if the file is unchanged
+   */
+
+  boolean fileIsUnchanged(
+    final String name,
+    final Path source,
+    final Path target,
+    final String mode)
+  {
+    final var key = PREFIX_FILE + name;
+    final var existing = this.previous.get(key);
+    if (existing == null) {
+      return false;
+    }
+
+    try {
+      if (!Files.isRegularFile(target)) {
+        return false;
+      }
+      if (!Objects.equals(existing, fileIdentity(source, target, mode))) {
+        return false;
+      }
+    } catch (final IOException e) {
+      return false;
+    }
+
+    this.current.put(key, existing);
+    return true;
+  }
+
+  /**
+   * Record that the file at {@code target} was produced from
+   * {@code source} in the given mode.
+   *
+   * @param name   The file name
+   * @param source The source file
+   * @param target The target file
+   * @param mode   The copy mode
+   *
+   * @throws IOException On errors
+   */
+
+  void fileWritten(
+    final String name,
+    final Path source,
+    final Path target,
+    final String mode)
+    throws IOException
+  {
+    this.current.put(PREFIX_FILE + name, fileIdentity(source, target, mode));
+  }
+
+  /**
+   * Determine if the runtime directory {@code directory} was produced from a
+   * runtime with the given identity by the previous run. If so, the
+   * runtime is carried over into the current state.
+   *
+   * @param name      The runtime directory name
+   * @param identity  The runtime identity
+   * @param directory The runtime directory
+   *
+   * @return {@code true} if the runtime is unchanged
+   */
+
+  boolean runtimeIsUnchanged(
+    final String name,
+    final String identity,
+    final Path directory)
+  {
+    final var key = PREFIX_RUNTIME + name;
+    if (!Objects.equals(this.previous.get(key), identity)) {
+      return false;
+    }
+    if (!Files.isDirectory(directory)) {
+      return false;
+    }
+
+    this.current.put(key, identity);
+    return true;
+  }
+
+  /**
+   * Record that the runtime directory was produced from a runtime with the
+   * given identity.
+   *
+   * @param name     The runtime directory name
+   * @param identity The runtime identity
+   */
+
+  void runtimeWritten(
+    final String name,
+    final String identity)
+  {
+    this.current.put(PREFIX_RUNTIME + name, identity);
+  }
+
+  /**
+   * @return The names of files written by the previous run but not by this
+   * one
+   */
+
+  Set<String> filesStale()
+  {
+    return this.stale(PREFIX_FILE);
+  }
+
+  /**
+   * @return The names of runtimes written by the previous run but not by
+   * this one
+   */
+
+  Set<String> runtimesStale()
+  {
+    return this.stale(PREFIX_RUNTIME);
+  }
+
+  private Set<String> stale(
+    final String prefix)
+  {
+    final var results = new TreeSet<String>();
+    for (final var key : this.previous.keySet()) {
+      if (key.startsWith(prefix) && !this.current.containsKey(key)) {
+        results.add(key.substring(prefix.length()));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Record the SHA-256 hash of the given file, computed while the file was
+   * being written.
+   *
+   * @param name The file name
+   * @param file The file
+   * @param hash The hash
+   *
+   * @throws IOException On errors
+   */
+
+  void hashRecorded(
+    final String name,
+    final Path file,
+    final String hash)
+    throws IOException
+  {
+    this.current.put(PREFIX_HASH + name, hashPrefixOf(file) + hash);
+  }
+
+  /**
+   * Determine the SHA-256 hash of the given file, reusing the hash recorded
+   * during this run or by the previous run if the file has not changed
+   * since.
+   *
+   * @param name The file name
+   * @param file The file
+   *
+   * @return The hash
+   *
+   * @throws IOException              On errors
+   * @throws NoSuchAlgorithmException On errors
+   */
+
+  String hashOf(
+    final String name,
+    final Path file)
+    throws IOException, NoSuchAlgorithmException
+  {
+    final var key =
+      PREFIX_HASH + name;
+    final var prefix =
+      hashPrefixOf(file);
+
+    final var known = this.hashKnown(key, prefix);
+    if (known != null) {
+      return known;
+    }
+
+    final var hash = NHashing.sha256Of(file);
+    this.current.put(key, prefix + hash);
+    return hash;
+  }
+
+  /**
+   * Ensure that the SHA-256 hash of the given file is known, computing it
+   * if necessary.
+   *
+   * @param name The file name
+   * @param file The file
+   *
+   * @return {@code true} if the file had to be read to compute the hash
+   *
+   * @throws IOException              On errors
+   * @throws NoSuchAlgorithmException On errors
+   */
+
+  boolean hashEnsure(
+    final String name,
+    final Path file)
+    throws IOException, NoSuchAlgorithmException
+  {
+    final var known =
+      this.hashKnown(PREFIX_HASH + name, hashPrefixOf(file));
+
+    if (known != null) {
+      return false;
+    }
+
+    this.hashOf(name, file);
+    return true;
+  }
+
+  private String hashKnown(
+    final String key,
+    final String prefix)
+  {
+    final var recorded = this.current.get(key);
+    if (recorded != null && recorded.startsWith(prefix)) {
+      return recorded.substring(prefix.length());
+    }
+
+    final var existing = this.previous.get(key);
+    if (existing != null && existing.startsWith(prefix)) {
+      this.current.put(key, existing);
+      return existing.substring(prefix.length());
+    }
+    return null;
+  }
+
+  private static String hashPrefixOf(
+    final Path file)
+    throws IOException
+  {
+    return String.join(
+      ":",
+      Long.toUnsignedString(Files.size(file)),
+      timeOf(file)
+    ) + ":";
+  }
+}
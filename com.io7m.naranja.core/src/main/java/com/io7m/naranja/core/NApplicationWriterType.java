@@ -17,6 +17,7 @@
 package com.io7m.naranja.core;
 
 import java.nio.file.Path;
+import java.util.function.Consumer;
 
 /**
  * An application writer.
@@ -27,10 +28,12 @@ public interface NApplicationWriterType extends AutoCloseable
   /**
    * Execute the writer.
    *
+   * @param progress A progress receiver
+   *
    * @throws NException On errors
    */
 
-  void execute()
+  void execute(Consumer<NApplicationWriterProgressType> progress)
     throws NException;
 
   @Override
@@ -16,31 +16,50 @@
 
 package com.io7m.naranja.core;
 
+import com.io7m.naranja.core.NApplicationBuilderType.Executable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedWriter;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.TreeMap;
-
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static com.io7m.naranja.core.NApplicationWriterPhase.COPY_EXTRAS;
+import static com.io7m.naranja.core.NApplicationWriterPhase.COPY_LIBRARIES;
+import static com.io7m.naranja.core.NApplicationWriterPhase.HASH;
+import static com.io7m.naranja.core.NApplicationWriterPhase.MANIFEST;
+import static com.io7m.naranja.core.NApplicationWriterPhase.UNPACK_RUNTIMES;
 import static com.io7m.naranja.core.NErrorCodes.errorIo;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * The default factory of application writers.
@@ -76,6 +95,11 @@ public final class NApplicationWriters
     private final NApplicationWriterConfiguration configuration;
     private final Path base;
     private final Path appDirectory;
+    private final ExecutorService copyExecutor;
+    private final ExecutorService runtimeExecutor;
+    private final Path stateFile;
+    private NApplicationWriterState state;
+    private Progress progress;
 
     private NApplicationWriter(
       final NApplicationWriterConfiguration inConfiguration)
@@ -87,15 +111,60 @@ public final class NApplicationWriters
         this.configuration.outputDirectory();
       this.appDirectory =
         this.base.resolve(this.configuration.application().name().value());
+      this.stateFile =
+        this.base.resolve(
+          this.configuration.application().name().value() + ".naranja-state");
+      this.state =
+        NApplicationWriterState.empty();
+      this.progress =
+        new Progress(p -> {
+
+        });
+
+      this.copyExecutor =
+        createExecutor("copy", this.configuration.copyParallelism());
+      this.runtimeExecutor =
+        createExecutor("runtime", this.configuration.runtimeParallelism());
+    }
+
+    private static ExecutorService createExecutor(
+      final String name,
+      final int threads)
+    {
+      return Executors.newFixedThreadPool(
+        threads,
+        r -> {
+          final var thread = new Thread(r);
+          thread.setName(
+            "com.io7m.naranja.writer.%s.%d"
+              .formatted(name, Long.valueOf(thread.threadId())));
+          thread.setDaemon(true);
+          return thread;
+        });
     }
 
     @Override
-    public void execute()
+    public void execute(
+      final Consumer<NApplicationWriterProgressType> inProgress)
       throws NException
     {
+      Objects.requireNonNull(inProgress, "progress");
+
       try {
+        this.progress = new Progress(inProgress);
         Files.createDirectories(this.appDirectory);
 
+        /*
+         * The state file is removed before anything is written so that a
+         * failed run leaves no state behind; the next run will then write
+         * everything.
+         */
+
+        if (this.configuration.incremental()) {
+          this.state = NApplicationWriterState.load(this.stateFile);
+        }
+        Files.deleteIfExists(this.stateFile);
+
         final var libDirectory =
           this.appDirectory.resolve("lib");
         final var runtimeDirectory =
@@ -110,8 +179,20 @@ public final class NApplicationWriters
         this.copyLibraries(libDirectory);
         this.unpackRuntimes(runtimeDirectory);
         this.copyExtras();
+        this.deleteStale(runtimeDirectory);
+        this.hashFiles(runtimeDirectory);
 
+        this.progress.phaseStart(MANIFEST, 1L);
         this.generateManifest(libDirectory, runtimeDirectory);
+        this.progress.fileCompleted(
+          "application.xml",
+          Files.size(this.appDirectory.resolve("application.xml"))
+        );
+        this.progress.phaseEnd();
+
+        if (this.configuration.incremental()) {
+          this.state.save(this.stateFile);
+        }
       } catch (final Exception e) {
         throw new NException(
           Objects.requireNonNullElse(
@@ -124,11 +205,12 @@ public final class NApplicationWriters
     }
 
     private void copyExtras()
-      throws IOException
+      throws IOException, NException, InterruptedException
     {
       final var files =
         new TreeMap<>(this.configuration.application().files());
 
+      final var operations = new ArrayList<CopyOperation>(files.size());
       for (final var entry : files.entrySet()) {
         final var file =
           entry.getValue();
@@ -138,19 +220,289 @@ public final class NApplicationWriters
         LOG.info("mkdir {}", targetFile.getParent());
         Files.createDirectories(targetFile.getParent());
 
-        LOG.info("copy {} -> {}", file.source(), targetFile);
-        Files.copy(
-          file.source(),
+        operations.add(
+          new CopyOperation(
+            this.nameOf(targetFile),
+            file.source(),
+            targetFile,
+            file.executable(),
+            true)
+        );
+      }
+
+      this.progress.phaseStart(COPY_EXTRAS, operations.size());
+      this.copyAll(operations);
+      this.progress.phaseEnd();
+    }
+
+    /**
+     * A single file copy operation. Directories for the target file are
+     * expected to have been created before the operation is executed. If
+     * {@code hashed} is {@code true}, the hash of the file is recorded for
+     * the manifest if the bytes of the file pass through the writer.
+     */
+
+    private record CopyOperation(
+      String name,
+      Path source,
+      Path target,
+      Executable executable,
+      boolean hashed)
+    {
+
+    }
+
+    /**
+     * Execute all the given copy operations, using at most
+     * {@link NApplicationWriterConfiguration#copyParallelism()} threads. The
+     * order in which operations complete is unspecified; nothing that
+     * depends on the copied files may run until this method returns.
+     */
+
+    private void copyAll(
+      final List<CopyOperation> operations)
+      throws IOException, NException, InterruptedException
+    {
+      final var futures = new ArrayList<Future<?>>(operations.size());
+      for (final var operation : operations) {
+        futures.add(this.copyExecutor.submit(() -> {
+          copyOne(operation);
+          return null;
+        }));
+      }
+      awaitAll(futures);
+    }
+
+    /**
+     * Wait for all the given tasks to complete. If any task fails, or if
+     * the calling thread is interrupted while waiting, the remaining tasks
+     * are cancelled so that nothing is written to the output after this
+     * method returns, and the failure is rethrown.
+     */
+
+    private static void awaitAll(
+      final List<Future<?>> futures)
+      throws IOException, NException, InterruptedException
+    {
+      var completed = false;
+      try {
+        for (final var future : futures) {
+          future.get();
+        }
+        completed = true;
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw e;
+      } catch (final ExecutionException e) {
+        final var cause = e.getCause();
+        if (cause instanceof final IOException ioException) {
+          throw ioException;
+        }
+        if (cause instanceof final NException nException) {
+          throw nException;
+        }
+        throw new IOException(cause);
+      } finally {
+        if (!completed) {
+          for (final var future : futures) {
+            future.cancel(true);
+          }
+        }
+      }
+    }
+
+    private void copyOne(
+      final CopyOperation operation)
+      throws IOException
+    {
+      final var targetFile =
+        operation.target();
+      final var mode =
+        "%s/%s".formatted(
+          this.configuration.copyStrategy(),
+          operation.executable());
+
+      final var unchanged =
+        this.state.fileIsUnchanged(
+          operation.name(),
+          operation.source(),
           targetFile,
-          StandardCopyOption.REPLACE_EXISTING);
+          mode
+        );
+
+      if (unchanged) {
+        LOG.info("unchanged {}", targetFile);
+        this.progress.fileCompleted(operation.name(), 0L);
+        return;
+      }
 
-        switch (file.executable()) {
-          case EXECUTABLE -> {
-            setFileExecutable(targetFile);
+      /*
+       * Hardlinks and reflinks do not pass the file through the writer, so
+       * no hash is available for them here. The manifest hashes those files
+       * itself.
+       */
+
+      final Optional<String> hash =
+        switch (this.configuration.copyStrategy()) {
+          case COPY -> Optional.of(copyBytes(operation.source(), targetFile));
+          case HARDLINK -> copyHardlink(operation);
+          case REFLINK_OR_COPY -> {
+            copyReflink(operation.source(), targetFile);
+            yield Optional.empty();
           }
-          case NOT_EXECUTABLE -> {
+        };
+
+      switch (operation.executable()) {
+        case EXECUTABLE -> {
+          setFileExecutable(targetFile);
+        }
+        case NOT_EXECUTABLE -> {
+
+        }
+      }
+
+      this.state.fileWritten(
+        operation.name(),
+        operation.source(),
+        targetFile,
+        mode
+      );
+
+      if (operation.hashed() && hash.isPresent()) {
+        this.state.hashRecorded(operation.name(), targetFile, hash.get());
+      }
+
+      this.progress.fileCompleted(operation.name(), Files.size(targetFile));
+    }
+
+    private String nameOf(
+      final Path file)
+    {
+      return this.appDirectory.relativize(file).toString();
+    }
+
+    /**
+     * Delete any files and runtimes that were written by the previous run,
+     * but that are no longer part of the application.
+     */
+
+    private void deleteStale(
+      final Path runtimeDirectory)
+      throws IOException
+    {
+      for (final var name : this.state.filesStale()) {
+        final var file = this.appDirectory.resolve(name);
+        LOG.info("delete {}", file);
+        Files.deleteIfExists(file);
+      }
+      for (final var name : this.state.runtimesStale()) {
+        deleteRecursively(runtimeDirectory.resolve(name));
+      }
+    }
+
+    private static void deleteRecursively(
+      final Path directory)
+      throws IOException
+    {
+      if (!Files.exists(directory)) {
+        return;
+      }
+
+      LOG.info("delete {}", directory);
+      try (var walk = Files.walk(directory)) {
+        final var paths =
+          walk.sorted(Comparator.reverseOrder())
+            .toList();
+        for (final var path : paths) {
+          Files.deleteIfExists(path);
+        }
+      }
+    }
+
+    private static String copyBytes(
+      final Path source,
+      final Path target)
+      throws IOException
+    {
+      LOG.info("copy {} -> {}", source, target);
+
+      /*
+       * The target might be a hardlink left behind by a previous run; writing
+       * through it would modify the source of that link.
+       */
+
+      Files.deleteIfExists(target);
+
+      try (var input = Files.newInputStream(source);
+           var output = Files.newOutputStream(target, CREATE_NEW, WRITE)) {
+        return NHashing.sha256Transfer(input, output);
+      } catch (final NoSuchAlgorithmException e) {
+        throw new IOException(e);
+      }
+    }
+
+    private static Optional<String> copyHardlink(
+      final CopyOperation operation)
+      throws IOException
+    {
+      final var source = operation.source();
+      final var target = operation.target();
+
+      /*
+       * Setting the permissions of a hardlink would change the permissions
+       * of the source file, so files that must be made executable are
+       * always copied.
+       */
+
+      if (operation.executable() == Executable.EXECUTABLE) {
+        return Optional.of(copyBytes(source, target));
+      }
+
+      Files.deleteIfExists(target);
+
+      try {
+        LOG.info("link {} -> {}", source, target);
+        Files.createLink(target, source);
+        return Optional.empty();
+      } catch (final IOException | UnsupportedOperationException e) {
+        LOG.debug("link {} -> {}: {}", source, target, e.toString());
+        return Optional.of(copyBytes(source, target));
+      }
+    }
 
+    private static void copyReflink(
+      final Path source,
+      final Path target)
+      throws IOException
+    {
+      /*
+       * The target might be a hardlink left behind by a previous run; writing
+       * through it would modify the source of that link.
+       */
+
+      Files.deleteIfExists(target);
+
+      LOG.info("clone {} -> {}", source, target);
+      try (var input = FileChannel.open(source, READ);
+           var output = FileChannel.open(target, CREATE_NEW, WRITE)) {
+        final var size = input.size();
+        var position = 0L;
+        while (position < size) {
+          final var sent = input.transferTo(position, size - position, output);
+          if (sent <= 0L) {
+            break;
           }
+          position += sent;
+        }
+
+        if (position != size) {
+          throw new IOException(
+            "Expected to copy %s octets from %s, but copied %s"
+              .formatted(
+                Long.toUnsignedString(size),
+                source,
+                Long.toUnsignedString(position))
+          );
         }
       }
     }
@@ -178,6 +530,13 @@ public final class NApplicationWriters
     private static final String NS_DUBLIN =
       "http://purl.org/dc/elements/1.1/";
 
+    /**
+     * Write the manifest. Elements are streamed to the output as they are
+     * produced, so memory use does not depend on the number of files in the
+     * application. The output is formatted identically to the output of an
+     * indenting {@code Transformer}.
+     */
+
     private void generateManifest(
       final Path libDirectory,
       final Path runtimeDirectory)
@@ -193,195 +552,173 @@ public final class NApplicationWriters
       final var outputFile =
         this.appDirectory.resolve("application.xml");
 
-      final var documents =
-        DocumentBuilderFactory.newDefaultNSInstance();
-      final var documentBuilder =
-        documents.newDocumentBuilder();
-      final var document =
-        documentBuilder.newDocument();
-
-      final var eApp =
-        document.createElementNS(NS, "Application");
-      document.appendChild(eApp);
-      eApp.setAttribute("xmlns:dc", NS_DUBLIN);
-      eApp.setAttribute("Name", appName.value());
-      eApp.setAttribute("Version", appVersion.toString());
-
-      final var eMeta =
-        document.createElementNS(NS, "Metadata");
-      eApp.appendChild(eMeta);
-
-      {
-        final var e =
-          document.createElementNS(NS_DUBLIN, "dc:identifier");
-        eMeta.appendChild(e);
-        e.setTextContent(String.format("%s:%s", appName.value(), appVersion));
-      }
+      try (var stream = Files.newOutputStream(outputFile);
+           var writer = new BufferedWriter(
+             new OutputStreamWriter(stream, UTF_8));
+           var output = ManifestOutput.create(writer)) {
+
+        output.startElement("Application");
+        output.namespace("dc", NS_DUBLIN);
+        output.attribute("Name", appName.value());
+        output.attribute("Version", appVersion.toString());
+        output.defaultNamespace(NS);
+
+        output.startElement("Metadata");
+        output.textElementPrefixed(
+          "dc",
+          NS_DUBLIN,
+          "identifier",
+          String.format("%s:%s", appName.value(), appVersion)
+        );
 
-      {
         final var sorted =
           new TreeMap<>(application.applicationMetadata());
 
         for (final var entry : sorted.entrySet()) {
-          final var e =
-            document.createElementNS(NS, "MetaProperty");
-          eMeta.appendChild(e);
-          e.setAttribute("Name", entry.getKey());
-          e.setTextContent(entry.getValue());
+          output.textElement(
+            "MetaProperty",
+            "Name",
+            entry.getKey(),
+            entry.getValue()
+          );
         }
-      }
-
-      this.generateFiles(libDirectory, runtimeDirectory, document, eApp);
-      this.generateRuntimes(document, eApp);
-
-      final var tr = TransformerFactory.newInstance().newTransformer();
-      tr.setOutputProperty(OutputKeys.INDENT, "yes");
-      tr.setOutputProperty(OutputKeys.METHOD, "xml");
-      tr.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-      tr.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+        output.endElement();
 
-      try (var stream = Files.newOutputStream(outputFile)) {
-        tr.transform(
-          new DOMSource(document),
-          new StreamResult(stream)
-        );
+        this.generateFiles(libDirectory, runtimeDirectory, output);
+        this.generateRuntimes(output);
+        output.endElement();
       }
     }
 
     private void generateRuntimes(
-      final Document document,
-      final Element eApp)
+      final ManifestOutput output)
+      throws XMLStreamException
     {
-      final var eRuntimes =
-        document.createElementNS(NS, "Runtimes");
-      eApp.appendChild(eRuntimes);
+      final var runtimes =
+        this.configuration.application()
+          .runtimes()
+          .stream()
+          .sorted(Comparator.comparing(NRuntime::id))
+          .toList();
 
-      final var rtElements =
-        this.generateManifestRuntimeElements(document);
-      for (final var element : rtElements) {
-        eRuntimes.appendChild(element);
+      if (runtimes.isEmpty()) {
+        output.emptyElement("Runtimes");
+        return;
       }
+
+      output.startElement("Runtimes");
+      for (final var runtime : runtimes) {
+        this.generateManifestRuntime(output, runtime);
+      }
+      output.endElement();
     }
 
     private void generateFiles(
       final Path libDirectory,
       final Path runtimeDirectory,
-      final Document document,
-      final Element eApp)
+      final ManifestOutput output)
       throws Exception
     {
-      final var eFiles =
-        document.createElementNS(NS, "Files");
-      eApp.appendChild(eFiles);
+      final var artifacts =
+        this.configuration.application()
+          .artifacts()
+          .values()
+          .stream()
+          .sorted()
+          .toList();
 
-      final var libElements =
-        this.generateManifestLibraryElements(document, libDirectory);
-      for (final var element : libElements) {
-        eFiles.appendChild(element);
+      final List<Path> runtimeFiles;
+      try (var fileStream = Files.walk(runtimeDirectory)) {
+        runtimeFiles = fileStream.filter(Files::isRegularFile)
+          .map(Path::toAbsolutePath)
+          .map(Path::normalize)
+          .sorted()
+          .toList();
       }
 
-      final var rtFileElements =
-        this.generateManifestRuntimeFileElements(document, runtimeDirectory);
-      for (final var element : rtFileElements) {
-        eFiles.appendChild(element);
+      final var extraFiles =
+        new TreeMap<>(this.configuration.application().files());
+
+      if (artifacts.isEmpty()
+          && runtimeFiles.isEmpty()
+          && extraFiles.isEmpty()) {
+        output.emptyElement("Files");
+        return;
       }
 
-      final var extraFileElements =
-        this.generateManifestExtraFileElements(document);
-      for (final var element : extraFileElements) {
-        eFiles.appendChild(element);
+      output.startElement("Files");
+
+      for (final var artifact : artifacts) {
+        this.generateManifestArtifact(output, libDirectory, artifact);
       }
+
+      this.generateManifestRuntimeFiles(
+        output,
+        runtimeDirectory,
+        runtimeFiles
+      );
+
+      this.generateManifestExtraFiles(output, extraFiles);
+      output.endElement();
     }
 
-    private List<Element> generateManifestExtraFileElements(
-      final Document document)
+    private void generateManifestExtraFiles(
+      final ManifestOutput output,
+      final TreeMap<String, NFile> files)
       throws Exception
     {
-      final var files =
-        new TreeMap<>(this.configuration.application().files());
-
-      final var results = new ArrayList<Element>();
       for (final var entry : files.entrySet()) {
         final var file =
           entry.getValue();
         final var targetFile =
           this.appDirectory.resolve(file.name());
 
-        final var eFile =
-          document.createElementNS(NS, "File");
-        eFile.setAttribute("Name", targetFile.toString());
-
         final var meta = new TreeMap<String, String>();
         meta.put("HashAlgorithm", "SHA-256");
-        meta.put("HashValue", NHashing.sha256Of(targetFile));
-        generateMetadataElement(document, meta, eFile);
-        results.add(eFile);
+        meta.put(
+          "HashValue",
+          this.state.hashOf(this.nameOf(targetFile), targetFile));
+
+        generateElementWithMetadata(
+          output,
+          "File",
+          "Name",
+          targetFile.toString(),
+          meta
+        );
       }
-
-      return results;
     }
 
-    private List<Element> generateManifestRuntimeFileElements(
-      final Document document,
-      final Path runtimeDirectory)
-      throws IOException, NoSuchAlgorithmException
+    private void generateManifestRuntimeFiles(
+      final ManifestOutput output,
+      final Path runtimeDirectory,
+      final List<Path> files)
+      throws IOException, NoSuchAlgorithmException, XMLStreamException
     {
-      final List<Path> files;
-      try (var fileStream = Files.walk(runtimeDirectory)) {
-        files = fileStream.filter(Files::isRegularFile)
-          .map(Path::toAbsolutePath)
-          .map(Path::normalize)
-          .sorted()
-          .toList();
-      }
-
-      final var elements = new ArrayList<Element>();
       for (final var file : files) {
         final var relative =
           runtimeDirectory.getParent()
             .relativize(file);
 
-        final var eFile =
-          document.createElementNS(NS, "File");
-        eFile.setAttribute("Name", relative.toString());
-
         final var meta = new TreeMap<String, String>();
         meta.put("HashAlgorithm", "SHA-256");
-        meta.put("HashValue", NHashing.sha256Of(file));
-        generateMetadataElement(document, meta, eFile);
-        elements.add(eFile);
-      }
-      return elements;
-    }
-
-    private List<Element> generateManifestRuntimeElements(
-      final Document document)
-    {
-      final var results = new ArrayList<Element>();
-
-      final var runtimes =
-        this.configuration.application()
-          .runtimes()
-          .stream()
-          .sorted(Comparator.comparing(NRuntime::id))
-          .toList();
-
-      for (final var runtime : runtimes) {
-        results.addAll(
-          this.generateManifestRuntimeElement(document, runtime)
+        meta.put("HashValue", this.state.hashOf(relative.toString(), file));
+
+        generateElementWithMetadata(
+          output,
+          "File",
+          "Name",
+          relative.toString(),
+          meta
         );
       }
-      return results;
     }
 
-    private List<Element> generateManifestRuntimeElement(
-      final Document document,
+    private void generateManifestRuntime(
+      final ManifestOutput output,
       final NRuntime runtime)
+      throws XMLStreamException
     {
-      final var eRT =
-        document.createElementNS(NS, "Runtime");
-      eRT.setAttribute("ID", runtime.id());
-
       final var meta =
         new TreeMap<>(
           this.configuration.application()
@@ -389,36 +726,14 @@ public final class NApplicationWriters
             .orElse(Map.of())
         );
 
-      generateMetadataElement(document, meta, eRT);
-      return List.of(eRT);
-    }
-
-    private List<Element> generateManifestLibraryElements(
-      final Document document,
-      final Path libDirectory)
-    {
-      final var results = new ArrayList<Element>();
-
-      final var artifacts =
-        this.configuration.application()
-          .artifacts()
-          .values()
-          .stream()
-          .sorted()
-          .toList();
-
-      for (final var artifact : artifacts) {
-        results.add(
-          this.generateManifestArtifactElement(document, libDirectory, artifact)
-        );
-      }
-      return results;
+      generateElementWithMetadata(output, "Runtime", "ID", runtime.id(), meta);
     }
 
-    private Element generateManifestArtifactElement(
-      final Document document,
+    private void generateManifestArtifact(
+      final ManifestOutput output,
       final Path libDirectory,
       final NAttachedArtifact artifact)
+      throws XMLStreamException
     {
       final var scopeDirectory =
         libDirectory.resolve(artifact.scope().name());
@@ -447,66 +762,199 @@ public final class NApplicationWriters
             .orElse(Map.of())
         );
 
-      final var eFile =
-        document.createElementNS(NS, "File");
-      eFile.setAttribute("Name", relative.toString());
-      generateMetadataElement(document, meta, eFile);
-      return eFile;
-    }
-
-    private static void generateMetadataElement(
-      final Document document,
-      final TreeMap<String, String> meta,
-      final Element parent)
-    {
-      if (!meta.isEmpty()) {
-        final var eMeta =
-          document.createElementNS(NS, "Metadata");
-        for (final var entry : meta.entrySet()) {
-          final var e =
-            document.createElementNS(NS, "MetaProperty");
-          e.setAttribute("Name", entry.getKey());
-          e.setTextContent(entry.getValue());
-          eMeta.appendChild(e);
-        }
-        parent.appendChild(eMeta);
+      generateElementWithMetadata(
+        output,
+        "File",
+        "Name",
+        relative.toString(),
+        meta
+      );
+    }
+
+    private static void generateElementWithMetadata(
+      final ManifestOutput output,
+      final String element,
+      final String attributeName,
+      final String attributeValue,
+      final TreeMap<String, String> meta)
+      throws XMLStreamException
+    {
+      if (meta.isEmpty()) {
+        output.emptyElement(element);
+        output.attribute(attributeName, attributeValue);
+        return;
+      }
+
+      output.startElement(element);
+      output.attribute(attributeName, attributeValue);
+      output.startElement("Metadata");
+      for (final var entry : meta.entrySet()) {
+        output.textElement(
+          "MetaProperty",
+          "Name",
+          entry.getKey(),
+          entry.getValue()
+        );
       }
+      output.endElement();
+      output.endElement();
     }
 
+    /**
+     * Unpack all runtimes, using at most
+     * {@link NApplicationWriterConfiguration#runtimeParallelism()} threads.
+     * Each runtime is unpacked into its own platform directory, so runtimes
+     * never write to the same files.
+     */
+
     private void unpackRuntimes(
       final Path runtimeDirectory)
-      throws NException
+      throws NException, IOException, InterruptedException
+    {
+      final var runtimes =
+        this.configuration.application().runtimes();
+
+      this.progress.phaseStart(UNPACK_RUNTIMES, runtimes.size());
+
+      final var futures = new ArrayList<Future<?>>(runtimes.size());
+      for (final var runtime : runtimes) {
+        futures.add(this.runtimeExecutor.submit(() -> {
+          this.unpackRuntime(runtimeDirectory, runtime);
+          return null;
+        }));
+      }
+      awaitAll(futures);
+      this.progress.phaseEnd();
+    }
+
+    /**
+     * Hash any files that were not hashed as they were written (such as
+     * hardlinked files), so that the manifest does not have to. Files are
+     * hashed using the copy threads.
+     */
+
+    private void hashFiles(
+      final Path runtimeDirectory)
+      throws IOException, NException, InterruptedException
+    {
+      final var files = new ArrayList<Path>();
+      try (var fileStream = Files.walk(runtimeDirectory)) {
+        fileStream.filter(Files::isRegularFile)
+          .forEach(files::add);
+      }
+      final var extras =
+        this.configuration.application().files().values();
+      for (final var file : extras) {
+        files.add(this.appDirectory.resolve(file.name()));
+      }
+
+      this.progress.phaseStart(HASH, files.size());
+
+      final var futures = new ArrayList<Future<?>>(files.size());
+      for (final var file : files) {
+        futures.add(this.copyExecutor.submit(() -> {
+          final var name = this.nameOf(file);
+          final var hashed = this.state.hashEnsure(name, file);
+          this.progress.fileCompleted(name, hashed ? Files.size(file) : 0L);
+          return null;
+        }));
+      }
+      awaitAll(futures);
+      this.progress.phaseEnd();
+    }
+
+    private void unpackRuntime(
+      final Path runtimeDirectory,
+      final NRuntime runtime)
+      throws NException, IOException
     {
       final var inventory =
         this.configuration.inventory();
       final var application =
         this.configuration.application();
-      final var runtimes =
-        application.runtimes();
 
-      for (final var runtime : runtimes) {
-        final var osDirectory =
-          runtimeDirectory.resolve(runtime.operatingSystem().name());
-        final var archDirectory =
-          osDirectory.resolve(runtime.architecture().name());
+      final var osDirectory =
+        runtimeDirectory.resolve(runtime.operatingSystem().name());
+      final var archDirectory =
+        osDirectory.resolve(runtime.architecture().name());
+
+      final var modulesOpt =
+        application.runtimeMinimizedModules(runtime);
+      final var filter =
+        application.runtimeUnpackFilter(runtime);
+
+      final var name =
+        runtimeDirectory.relativize(archDirectory).toString();
+      var identity =
+        "%s:%s".formatted(
+          runtime.id(),
+          String.join(",", new TreeSet<>(modulesOpt.orElse(Set.of())))
+        );
+      if (modulesOpt.isEmpty() && !filter.isEmpty()) {
+        identity = "%s:+%s:-%s".formatted(
+          identity,
+          String.join(",", filter.includes()),
+          String.join(",", filter.excludes())
+        );
+      }
 
-        final var modulesOpt =
-          application.runtimeMinimizedModules(runtime);
+      if (this.state.runtimeIsUnchanged(name, identity, archDirectory)) {
+        LOG.info("unchanged {}", archDirectory);
+        this.progress.fileCompleted(name, 0L);
+        return;
+      }
 
-        if (modulesOpt.isPresent()) {
-          final var modules = modulesOpt.get();
-          inventory.runtimeUnpackAndRelink(runtime, archDirectory, modules);
-        } else {
-          inventory.runtimeUnpack(runtime, archDirectory);
-        }
+      if (this.configuration.incremental()) {
+        deleteRecursively(archDirectory);
+      }
+
+      if (modulesOpt.isPresent()) {
+        final var modules = modulesOpt.get();
+        inventory.runtimeUnpackAndRelink(
+          runtime,
+          archDirectory,
+          modules,
+          this::onRuntimeFileHashed
+        );
+      } else if (!filter.isEmpty()) {
+        inventory.runtimeUnpack(
+          runtime,
+          archDirectory,
+          filter,
+          this::onRuntimeFileHashed
+        );
+      } else {
+        inventory.runtimeUnpack(
+          runtime,
+          archDirectory,
+          this::onRuntimeFileHashed
+        );
+      }
+      this.state.runtimeWritten(name, identity);
+      this.progress.fileCompleted(name, 0L);
+    }
+
+    private void onRuntimeFileHashed(
+      final Path file,
+      final String hash)
+    {
+      try {
+        this.state.hashRecorded(
+          this.nameOf(file.toAbsolutePath()),
+          file,
+          hash
+        );
+      } catch (final IOException e) {
+        LOG.debug("hash {}: {}", file, e.toString());
       }
     }
 
     private void copyLibraries(
       final Path libDirectory)
-      throws IOException, NException
+      throws IOException, NException, InterruptedException
     {
       final var app = this.configuration.application();
+      final var operations = new ArrayList<CopyOperation>();
       for (final var artifact : app.artifacts().values()) {
         final var scopeDirectory =
           libDirectory.resolve(artifact.scope().name());
@@ -529,14 +977,26 @@ public final class NApplicationWriters
             rawArtifact.type().name()
           ));
 
-        Files.copy(file, outFile, StandardCopyOption.REPLACE_EXISTING);
+        operations.add(
+          new CopyOperation(
+            this.nameOf(outFile),
+            file,
+            outFile,
+            Executable.NOT_EXECUTABLE,
+            false)
+        );
       }
+
+      this.progress.phaseStart(COPY_LIBRARIES, operations.size());
+      this.copyAll(operations);
+      this.progress.phaseEnd();
     }
 
     @Override
     public void close()
     {
-
+      this.copyExecutor.close();
+      this.runtimeExecutor.close();
     }
 
     @Override
@@ -545,4 +1005,357 @@ public final class NApplicationWriters
       return this.appDirectory;
     }
   }
+
+  /**
+   * A progress value delivered to the caller of the writer.
+   */
+
+  private record ProgressValue(
+    NApplicationWriterPhase phase,
+    boolean phaseCompleted,
+    Duration phaseElapsed,
+    long fileCount,
+    long fileIndex,
+    String fileName,
+    long byteCount)
+    implements NApplicationWriterProgressType
+  {
+
+  }
+
+  /**
+   * The progress of the writer. Files may be completed on any thread, so
+   * all updates are synchronized and the receiver sees progress values in
+   * order.
+   */
+
+  private static final class Progress
+  {
+    private final Consumer<NApplicationWriterProgressType> receiver;
+    private NApplicationWriterPhase phase;
+    private long timeStart;
+    private long fileCount;
+    private long fileIndex;
+    private long byteCount;
+
+    Progress(
+      final Consumer<NApplicationWriterProgressType> inReceiver)
+    {
+      this.receiver = Objects.requireNonNull(inReceiver, "receiver");
+      this.phase = COPY_LIBRARIES;
+      this.timeStart = System.nanoTime();
+    }
+
+    synchronized void phaseStart(
+      final NApplicationWriterPhase newPhase,
+      final long newFileCount)
+    {
+      this.phase = newPhase;
+      this.timeStart = System.nanoTime();
+      this.fileCount = newFileCount;
+      this.fileIndex = 0L;
+      this.byteCount = 0L;
+      this.publish(false, "");
+    }
+
+    synchronized void fileCompleted(
+      final String fileName,
+      final long bytes)
+    {
+      ++this.fileIndex;
+      this.byteCount += bytes;
+      this.publish(false, fileName);
+    }
+
+    synchronized void phaseEnd()
+    {
+      LOG.debug(
+        "{}: {} files, {} bytes, {}",
+        this.phase,
+        Long.valueOf(this.fileIndex),
+        Long.valueOf(this.byteCount),
+        this.elapsed()
+      );
+      this.publish(true, "");
+    }
+
+    private Duration elapsed()
+    {
+      return Duration.ofNanos(System.nanoTime() - this.timeStart);
+    }
+
+    private void publish(
+      final boolean completed,
+      final String fileName)
+    {
+      this.receiver.accept(
+        new ProgressValue(
+          this.phase,
+          completed,
+          this.elapsed(),
+          this.fileCount,
+          this.fileIndex,
+          fileName,
+          this.byteCount
+        )
+      );
+    }
+  }
+
+  /**
+   * An indenting wrapper over an {@link XMLStreamWriter}. The output is laid
+   * out in the same manner as an indenting {@code Transformer} with an
+   * indent amount of two: every element starts on a new line, elements
+   * containing only text are written on a single line, and elements with
+   * no content are written as empty elements.
+   */
+
+  private static final class ManifestOutput implements AutoCloseable
+  {
+    private final XMLStreamWriter output;
+    private int depth;
+
+    private ManifestOutput(
+      final XMLStreamWriter inOutput)
+    {
+      this.output = Objects.requireNonNull(inOutput, "output");
+    }
+
+    static ManifestOutput create(
+      final Writer writer)
+      throws IOException, XMLStreamException
+    {
+      /*
+       * XMLStreamWriter cannot produce a "standalone" pseudo-attribute, so
+       * the declaration is written directly.
+       */
+
+      writer.write(
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+
+      final var factory = XMLOutputFactory.newDefaultFactory();
+      return new ManifestOutput(
+        factory.createXMLStreamWriter(new ManifestWhitespace(writer))
+      );
+    }
+
+    /**
+     * Stream writers are not required to reject characters that cannot
+     * appear in XML documents, so the manifest checks them itself.
+     */
+
+    private static String checkCharacters(
+      final String text)
+      throws XMLStreamException
+    {
+      int index = 0;
+      while (index < text.length()) {
+        final int c = text.codePointAt(index);
+        index += Character.charCount(c);
+
+        final var valid =
+          c == '\t' || c == '\n' || c == '\r' || isValidXMLCharacter(c);
+        if (!valid) {
+          throw new XMLStreamException(
+            "An invalid XML character (Unicode: 0x%s) was found in '%s'"
+              .formatted(Integer.toHexString(c), text)
+          );
+        }
+      }
+      return text;
+    }
+
+    private static boolean isValidXMLCharacter(
+      final int c)
+    {
+      if (c >= 0x20 && c <= 0xd7ff) {
+        return true;
+      }
+      if (c >= 0xe000 && c <= 0xfffd) {
+        return true;
+      }
+      return c >= 0x10000 && c <= 0x10ffff;
+    }
+
+    private void indent()
+      throws XMLStreamException
+    {
+      this.output.writeCharacters("\n");
+      for (int index = 0; index < this.depth; ++index) {
+        this.output.writeCharacters("  ");
+      }
+    }
+
+    void startElement(
+      final String name)
+      throws XMLStreamException
+    {
+      this.indent();
+      this.output.writeStartElement(name);
+      ++this.depth;
+    }
+
+    void emptyElement(
+      final String name)
+      throws XMLStreamException
+    {
+      this.indent();
+      this.output.writeEmptyElement(name);
+    }
+
+    void endElement()
+      throws XMLStreamException
+    {
+      --this.depth;
+      this.indent();
+      this.output.writeEndElement();
+
+      if (this.depth == 0) {
+        this.output.writeCharacters("\n");
+      }
+    }
+
+    void attribute(
+      final String name,
+      final String value)
+      throws XMLStreamException
+    {
+      this.output.writeAttribute(name, checkCharacters(value));
+    }
+
+    void namespace(
+      final String prefix,
+      final String namespace)
+      throws XMLStreamException
+    {
+      this.output.writeNamespace(prefix, namespace);
+    }
+
+    void defaultNamespace(
+      final String namespace)
+      throws XMLStreamException
+    {
+      this.output.writeDefaultNamespace(namespace);
+    }
+
+    void textElement(
+      final String name,
+      final String attributeName,
+      final String attributeValue,
+      final String text)
+      throws XMLStreamException
+    {
+      this.indent();
+      if (text.isEmpty()) {
+        this.output.writeEmptyElement(name);
+        this.attribute(attributeName, attributeValue);
+        return;
+      }
+
+      this.output.writeStartElement(name);
+      this.attribute(attributeName, attributeValue);
+      this.output.writeCharacters(checkCharacters(text));
+      this.output.writeEndElement();
+    }
+
+    void textElementPrefixed(
+      final String prefix,
+      final String namespace,
+      final String name,
+      final String text)
+      throws XMLStreamException
+    {
+      this.indent();
+      if (text.isEmpty()) {
+        this.output.writeEmptyElement(prefix, name, namespace);
+        return;
+      }
+
+      this.output.writeStartElement(prefix, name, namespace);
+      this.output.writeCharacters(checkCharacters(text));
+      this.output.writeEndElement();
+    }
+
+    @Override
+    public void close()
+      throws XMLStreamException
+    {
+      this.output.flush();
+      this.output.close();
+    }
+  }
+
+  /**
+   * A filter over the serialized manifest that replaces the whitespace
+   * that an XML parser would normalize with character references: tabs,
+   * newlines, and carriage returns inside attribute values, and carriage
+   * returns in text. Without this, a file name containing a newline would
+   * be read back with a space in its place. Only the tag and quote
+   * structure of the serialized document is tracked, so this works with
+   * the output of any stream writer.
+   */
+
+  private static final class ManifestWhitespace extends FilterWriter
+  {
+    private char quote;
+    private boolean inTag;
+
+    ManifestWhitespace(
+      final Writer inWriter)
+    {
+      super(inWriter);
+    }
+
+    @Override
+    public void write(
+      final int c)
+      throws IOException
+    {
+      final var ch = (char) c;
+      if (this.quote != 0) {
+        if (ch == this.quote) {
+          this.quote = 0;
+        } else if (ch == '\t' || ch == '\n' || ch == '\r') {
+          this.out.write("&#%d;".formatted(Integer.valueOf(c)));
+          return;
+        }
+      } else if (this.inTag) {
+        if (ch == '"' || ch == '\'') {
+          this.quote = ch;
+        } else if (ch == '>') {
+          this.inTag = false;
+        }
+      } else if (ch == '<') {
+        this.inTag = true;
+      } else if (ch == '\r') {
+        this.out.write("&#13;");
+        return;
+      }
+      this.out.write(c);
+    }
+
+    @Override
+    public void write(
+      final char[] buffer,
+      final int offset,
+      final int length)
+      throws IOException
+    {
+      for (int index = offset; index < offset + length; ++index) {
+        this.write(buffer[index]);
+      }
+    }
+
+    @Override
+    public void write(
+      final String text,
+      final int offset,
+      final int length)
+      throws IOException
+    {
+      for (int index = offset; index < offset + length; ++index) {
+        this.write(text.charAt(index));
+      }
+    }
+  }
 }
@@ -67,6 +67,7 @@ public final class NApplications
     private final HashMap<NArtifact, Map<String, String>> artifactMetadata;
     private final HashSet<NRuntime> runtimes;
     private final HashMap<String, Set<String>> runtimesModules;
+    private final HashMap<String, NRuntimeUnpackFilter> runtimesFilters;
     private final HashMap<NRuntime, Map<String, String>> runtimeMetadata;
     private final HashMap<String, String> appMetadata;
     private final HashMap<String, NFile> extraFiles;
@@ -87,6 +88,8 @@ public final class NApplications
         new HashMap<>();
       this.runtimes =
         new HashSet<>();
+      this.runtimesFilters =
+        new HashMap<>();
       this.runtimesModules =
         new HashMap<>();
       this.runtimeMetadata =
@@ -259,6 +262,26 @@ public final class NApplications
       return this;
     }
 
+    @Override
+    public NApplicationBuilderType runtimeSetUnpackFilter(
+      final NRuntime runtime,
+      final NRuntimeUnpackFilter filter)
+      throws NException
+    {
+      Objects.requireNonNull(runtime, "runtime");
+      Objects.requireNonNull(filter, "filter");
+
+      if (!this.runtimes.contains(runtime)) {
+        throw new NException(
+          "The given runtime has not been added to the application.",
+          errorArtifactNonexistent()
+        );
+      }
+
+      this.runtimesFilters.put(runtime.id(), filter);
+      return this;
+    }
+
     @Override
     public NApplicationType build()
     {
@@ -282,6 +305,7 @@ public final class NApplications
         Map.copyOf(this.appMetadata),
         Map.copyOf(runtimeMetaCopy),
         Map.copyOf(this.runtimesModules),
+        Map.copyOf(this.runtimesFilters),
         Set.copyOf(this.runtimes),
         Map.copyOf(this.artifacts),
         Map.copyOf(this.artifactFiles),
@@ -297,6 +321,7 @@ public final class NApplications
     Map<String, String> appMetadata,
     Map<NRuntime, Map<String, String>> runtimeMedata,
     Map<String, Set<String>> runtimeMinimizeModules,
+    Map<String, NRuntimeUnpackFilter> runtimeFilters,
     Set<NRuntime> runtimes,
     Map<NArtifact, NAttachedArtifact> artifacts,
     Map<NArtifact, Path> artifactFiles,
@@ -309,6 +334,7 @@ public final class NApplications
       Objects.requireNonNull(runtimes, "runtimes");
       Objects.requireNonNull(runtimeMedata, "runtimeMedata");
       Objects.requireNonNull(runtimeMinimizeModules, "runtimeMinimizeModules");
+      Objects.requireNonNull(runtimeFilters, "runtimeFilters");
       Objects.requireNonNull(name, "name");
       Objects.requireNonNull(version, "version");
       Objects.requireNonNull(artifacts, "artifacts");
@@ -331,6 +357,16 @@ public final class NApplications
       );
     }
 
+    @Override
+    public NRuntimeUnpackFilter runtimeUnpackFilter(
+      final NRuntime runtime)
+    {
+      return this.runtimeFilters.getOrDefault(
+        runtime.id(),
+        NRuntimeUnpackFilter.all()
+      );
+    }
+
     @Override
     public Path fileForArtifact(
       final NArtifact artifact)
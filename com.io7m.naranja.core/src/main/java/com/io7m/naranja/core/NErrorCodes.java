@@ -32,6 +32,9 @@ public final class NErrorCodes
   private static final NErrorCode ERROR_IO =
     new NErrorCode("error-io");
 
+  private static final NErrorCode ERROR_RUNTIME_ID_INVALID =
+    new NErrorCode("error-runtime-id-invalid");
+
   private NErrorCodes()
   {
 
@@ -63,4 +66,13 @@ public final class NErrorCodes
   {
     return ERROR_IO;
   }
+
+  /**
+   * @return A runtime identifier was not valid
+   */
+
+  public static NErrorCode errorRuntimeIdInvalid()
+  {
+    return ERROR_RUNTIME_ID_INVALID;
+  }
 }
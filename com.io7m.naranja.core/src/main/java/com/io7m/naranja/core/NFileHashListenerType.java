@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.core;
+
+import java.nio.file.Path;
+
+/**
+ * A receiver of the hashes of files as they are written.
+ */
+
+@FunctionalInterface
+public interface NFileHashListenerType
+{
+  /**
+   * A file was completely written.
+   *
+   * @param file       The file
+   * @param hashSHA256 The SHA-256 hash of the file's contents
+   */
+
+  void onFileHashed(
+    Path file,
+    String hashSHA256);
+
+  /**
+   * @return A listener that ignores all hashes
+   */
+
+  static NFileHashListenerType ignoring()
+  {
+    return (file, hashSHA256) -> {
+
+    };
+  }
+}
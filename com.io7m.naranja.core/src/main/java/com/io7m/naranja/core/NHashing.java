@@ -20,9 +20,11 @@ package com.io7m.naranja.core;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.HexFormat;
@@ -82,4 +84,33 @@ public final class NHashing
   {
     return sha256Of(file.toFile());
   }
+
+  /**
+   * Transfer all of the given input stream to the given output stream,
+   * returning the SHA-256 hash of the transferred bytes. Neither stream is
+   * closed.
+   *
+   * @param input  The input stream
+   * @param output The output stream
+   *
+   * @return The hash
+   *
+   * @throws NoSuchAlgorithmException On errors
+   * @throws IOException              On errors
+   */
+
+  public static String sha256Transfer(
+    final InputStream input,
+    final OutputStream output)
+    throws NoSuchAlgorithmException, IOException
+  {
+    final var digest =
+      MessageDigest.getInstance("SHA-256");
+    final var digestOutput =
+      new DigestOutputStream(output, digest);
+
+    input.transferTo(digestOutput);
+    digestOutput.flush();
+    return HexFormat.of().formatHex(digest.digest());
+  }
 }
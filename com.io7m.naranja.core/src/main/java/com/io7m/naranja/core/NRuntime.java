@@ -73,10 +73,22 @@ public record NRuntime(
     Objects.requireNonNull(archiveType, "archiveType");
     Objects.requireNonNull(versionText, "versionText");
 
-    if (!VALID_ID.matcher(id).matches()) {
+    if (!isValidId(id)) {
       throw new IllegalArgumentException(
         "Runtime identifiers must match %s".formatted(VALID_ID)
       );
     }
   }
+
+  /**
+   * @param id The identifier
+   *
+   * @return {@code true} if the given text is a valid runtime identifier
+   */
+
+  public static boolean isValidId(
+    final String id)
+  {
+    return VALID_ID.matcher(id).matches();
+  }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.core;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The progress of a runtime download.
+ *
+ * @param sizeExpected    The expected size of the download
+ * @param sizeReceived    The size of the download received so far, including
+ *                        any part received by an earlier, resumed download
+ * @param elapsed         The time elapsed since the transfer started
+ * @param octetsPerSecond The average rate of the transfer so far
+ * @param remaining       The estimated time until the transfer completes, if
+ *                        the rate of the transfer is known
+ * @param completed       {@code true} if the download has finished, either
+ *                        successfully or otherwise
+ */
+
+public record NRuntimeDownloadProgress(
+  long sizeExpected,
+  long sizeReceived,
+  Duration elapsed,
+  double octetsPerSecond,
+  Optional<Duration> remaining,
+  boolean completed)
+{
+  /**
+   * The progress of a runtime download.
+   *
+   * @param sizeExpected    The expected size of the download
+   * @param sizeReceived    The size of the download received so far,
+   *                        including any part received by an earlier,
+   *                        resumed download
+   * @param elapsed         The time elapsed since the transfer started
+   * @param octetsPerSecond The average rate of the transfer so far
+   * @param remaining       The estimated time until the transfer completes,
+   *                        if the rate of the transfer is known
+   * @param completed       {@code true} if the download has finished, either
+   *                        successfully or otherwise
+   */
+
+  public NRuntimeDownloadProgress
+  {
+    Objects.requireNonNull(elapsed, "elapsed");
+    Objects.requireNonNull(remaining, "remaining");
+  }
+
+  /**
+   * @return The download progress in the range {@code [0, 1]}
+   */
+
+  public double progress()
+  {
+    if (this.sizeExpected == 0L) {
+      return 1.0;
+    }
+    return (double) this.sizeReceived / (double) this.sizeExpected;
+  }
+}
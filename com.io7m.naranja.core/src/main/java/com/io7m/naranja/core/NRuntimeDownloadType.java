@@ -18,7 +18,9 @@
 package com.io7m.naranja.core;
 
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * A download in progress.
@@ -52,4 +54,26 @@ public interface NRuntimeDownloadType
    */
 
   CompletableFuture<Path> future();
+
+  /**
+   * Subscribe to the progress of the download. Progress values are pushed
+   * to the receiver as data arrives, but no more often than once per the
+   * given interval, and a final value with
+   * {@link NRuntimeDownloadProgress#completed()} set is delivered when the
+   * download finishes, before the download's future completes. A receiver
+   * that subscribes to a download that has already finished receives the
+   * final value immediately.
+   *
+   * <p>The receiver is called on the threads performing the download and
+   * should therefore return quickly.</p>
+   *
+   * @param interval The minimum interval between progress values
+   * @param receiver The receiver of progress values
+   *
+   * @return The subscription
+   */
+
+  NRuntimeDownloadSubscriptionType subscribe(
+    Duration interval,
+    Consumer<NRuntimeDownloadProgress> receiver);
 }
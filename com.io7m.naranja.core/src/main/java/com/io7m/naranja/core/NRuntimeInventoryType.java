@@ -82,9 +82,60 @@ public interface NRuntimeInventoryType extends AutoCloseable
    * @throws NException On errors
    */
 
+  default void runtimeUnpack(
+    final NRuntime runtime,
+    final Path output)
+    throws NException
+  {
+    this.runtimeUnpack(runtime, output, NFileHashListenerType.ignoring());
+  }
+
+  /**
+   * Unpack a downloaded runtime into the given directory. The SHA-256 hash
+   * of each file is computed as the file is unpacked, and is passed to the
+   * given listener once the file has been completely written.
+   *
+   * <p>The inventory may keep an extracted copy of the runtime and populate
+   * the output directory with hard links to the files in that copy. Files
+   * in the output directory should therefore be replaced rather than
+   * modified in place.</p>
+   *
+   * @param runtime The runtime
+   * @param output  The output directory
+   * @param hashes  The receiver of file hashes
+   *
+   * @throws NException On errors
+   */
+
+  default void runtimeUnpack(
+    final NRuntime runtime,
+    final Path output,
+    final NFileHashListenerType hashes)
+    throws NException
+  {
+    this.runtimeUnpack(runtime, output, NRuntimeUnpackFilter.all(), hashes);
+  }
+
+  /**
+   * Unpack the files of a downloaded runtime selected by the given filter
+   * into the given directory. Files that the filter rejects are neither
+   * written nor hashed.
+   *
+   * @param runtime The runtime
+   * @param output  The output directory
+   * @param filter  The filter that selects the files to unpack
+   * @param hashes  The receiver of file hashes
+   *
+   * @throws NException On errors
+   *
+   * @see #runtimeUnpack(NRuntime, Path, NFileHashListenerType)
+   */
+
   void runtimeUnpack(
     NRuntime runtime,
-    Path output)
+    Path output,
+    NRuntimeUnpackFilter filter,
+    NFileHashListenerType hashes)
     throws NException;
 
   /**
@@ -98,10 +149,43 @@ public interface NRuntimeInventoryType extends AutoCloseable
    * @throws NException On errors
    */
 
+  default void runtimeUnpackAndRelink(
+    final NRuntime runtime,
+    final Path output,
+    final Set<String> modules)
+    throws NException
+  {
+    this.runtimeUnpackAndRelink(
+      runtime,
+      output,
+      modules,
+      NFileHashListenerType.ignoring()
+    );
+  }
+
+  /**
+   * Unpack a downloaded runtime into the given directory, re-linking it with
+   * {@code jlink} to produce a smaller runtime. The SHA-256 hash of each
+   * file is passed to the given listener once the file has been written.
+   *
+   * <p>The inventory may keep a copy of the re-linked runtime and populate
+   * the output directory with hard links to the files in that copy. Files
+   * in the output directory should therefore be replaced rather than
+   * modified in place.</p>
+   *
+   * @param runtime The runtime
+   * @param output  The output directory
+   * @param modules The set of modules that must be present in the runtime
+   * @param hashes  The receiver of file hashes
+   *
+   * @throws NException On errors
+   */
+
   void runtimeUnpackAndRelink(
     NRuntime runtime,
     Path output,
-    Set<String> modules)
+    Set<String> modules,
+    NFileHashListenerType hashes)
     throws NException;
 
   /**
@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.core;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Rules that select the files extracted from a runtime archive.
+ *
+ * <p>Rules are globs in the syntax of
+ * {@link java.nio.file.FileSystem#getPathMatcher(String)}, matched against
+ * paths relative to the root of the runtime (such as {@code bin/java} or
+ * {@code lib/src.zip}). A rule that matches a directory applies to every
+ * file beneath it, so {@code man} and {@code man/**} are equivalent. A
+ * file is extracted if there are no include rules or at least one include
+ * rule matches it, and no exclude rule matches it.</p>
+ *
+ * @param includes The include rules
+ * @param excludes The exclude rules
+ */
+
+public record NRuntimeUnpackFilter(
+  List<String> includes,
+  List<String> excludes)
+{
+  private static final NRuntimeUnpackFilter ALL =
+    new NRuntimeUnpackFilter(List.of(), List.of());
+
+  /**
+   * Rules that select the files extracted from a runtime archive.
+   *
+   * @param includes The include rules
+   * @param excludes The exclude rules
+   */
+
+  public NRuntimeUnpackFilter
+  {
+    includes = normalize(Objects.requireNonNull(includes, "includes"));
+    excludes = normalize(Objects.requireNonNull(excludes, "excludes"));
+  }
+
+  private static List<String> normalize(
+    final List<String> rules)
+  {
+    final var results = new ArrayList<String>(rules.size());
+    for (final var rule : rules) {
+      var text = Objects.requireNonNull(rule, "rule").trim();
+      while (text.endsWith("/")) {
+        text = text.substring(0, text.length() - 1);
+      }
+      if (text.isEmpty()) {
+        throw new IllegalArgumentException(
+          "Unpack rules must not be empty (received '%s')".formatted(rule)
+        );
+      }
+      compile(text);
+      results.add(text);
+    }
+    return List.copyOf(results);
+  }
+
+  private static PathMatcher compile(
+    final String rule)
+  {
+    return FileSystems.getDefault().getPathMatcher("glob:" + rule);
+  }
+
+  /**
+   * @return A filter that extracts every file
+   */
+
+  public static NRuntimeUnpackFilter all()
+  {
+    return ALL;
+  }
+
+  /**
+   * @return {@code true} if this filter has no rules
+   */
+
+  public boolean isEmpty()
+  {
+    return this.includes.isEmpty() && this.excludes.isEmpty();
+  }
+
+  /**
+   * @return A predicate that returns {@code true} for the relative paths
+   * of files that should be extracted
+   */
+
+  public Predicate<Path> matcher()
+  {
+    final var includeMatchers =
+      this.includes.stream()
+        .map(NRuntimeUnpackFilter::compile)
+        .toList();
+    final var excludeMatchers =
+      this.excludes.stream()
+        .map(NRuntimeUnpackFilter::compile)
+        .toList();
+
+    return path -> {
+      final var included =
+        includeMatchers.isEmpty() || matchesAny(includeMatchers, path);
+      return included && !matchesAny(excludeMatchers, path);
+    };
+  }
+
+  private static boolean matchesAny(
+    final List<PathMatcher> matchers,
+    final Path path)
+  {
+    for (var current = path; current != null; current = current.getParent()) {
+      for (final var matcher : matchers) {
+        if (matcher.matches(current)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
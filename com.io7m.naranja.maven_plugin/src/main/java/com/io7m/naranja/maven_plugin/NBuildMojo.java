@@ -23,6 +23,7 @@ import com.io7m.naranja.archivers.NApplicationArchivers;
 import com.io7m.naranja.core.NApplicationBuilderType;
 import com.io7m.naranja.core.NApplicationType;
 import com.io7m.naranja.core.NApplicationWriterConfiguration;
+import com.io7m.naranja.core.NApplicationWriterCopyStrategy;
 import com.io7m.naranja.core.NApplicationWriters;
 import com.io7m.naranja.core.NApplications;
 import com.io7m.naranja.core.NArtifact;
@@ -31,6 +32,7 @@ import com.io7m.naranja.core.NException;
 import com.io7m.naranja.core.NHashing;
 import com.io7m.naranja.core.NRuntimeInventoryType;
 import com.io7m.naranja.runtimes.NRuntimeInventories;
+import com.io7m.naranja.runtimes.NRuntimeInventoryConfiguration;
 import com.io7m.verona.core.VersionException;
 import com.io7m.verona.core.VersionParser;
 import org.apache.maven.plugin.AbstractMojo;
@@ -56,12 +58,14 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
 
 import static com.io7m.naranja.core.NApplicationBuilderType.Executable.EXECUTABLE;
 import static com.io7m.naranja.core.NApplicationBuilderType.Executable.NOT_EXECUTABLE;
@@ -183,6 +187,62 @@ public final class NBuildMojo extends AbstractMojo
   @Parameter(required = false)
   private List<ExtraFile> extraFiles = new ArrayList<>();
 
+  /**
+   * The maximum number of files that will be copied concurrently when
+   * writing the application. Defaults to the number of available processors.
+   */
+
+  @Parameter(required = false)
+  private Integer copyParallelism;
+
+  /**
+   * The maximum number of runtimes unpacked concurrently when writing the
+   * application. Defaults to the number of available processors.
+   */
+
+  @Parameter(required = false)
+  private Integer runtimeParallelism;
+
+  /**
+   * The strategy used to copy files when writing the application.
+   */
+
+  @Parameter(
+    required = false,
+    defaultValue = "COPY")
+  private NApplicationWriterCopyStrategy copyStrategy =
+    NApplicationWriterCopyStrategy.COPY;
+
+  /**
+   * True if files and runtimes that have not changed since the previous
+   * build should not be written again.
+   */
+
+  @Parameter(
+    required = false,
+    defaultValue = "false")
+  private boolean incremental;
+
+  /**
+   * The maximum number of byte ranges of a runtime that will be downloaded
+   * concurrently. The default downloads each runtime as a single stream.
+   */
+
+  @Parameter(
+    required = false,
+    defaultValue = "1")
+  private int runtimeDownloadSegments = 1;
+
+  /**
+   * True if runtimes should be found using the cached runtime catalog
+   * only. Defaults to Maven's offline setting.
+   */
+
+  @Parameter(
+    required = false,
+    defaultValue = "${settings.offline}")
+  private boolean offline;
+
   /**
    * The "build" mojo.
    */
@@ -217,7 +277,14 @@ public final class NBuildMojo extends AbstractMojo
       final var directories =
         ApplicationDirectories.get(configuration);
 
-      try (var inventory = inventories.open(directories.cacheDirectory())) {
+      final var inventoryConfiguration =
+        NRuntimeInventoryConfiguration.defaults()
+          .withDownloadSegments(this.runtimeDownloadSegments)
+          .withOffline(this.offline);
+
+      try (var inventory = inventories.open(
+        directories.cacheDirectory(),
+        inventoryConfiguration)) {
         final var appBuilder =
           NApplications.create(
             new RDottedName(this.applicationName),
@@ -291,7 +358,11 @@ public final class NBuildMojo extends AbstractMojo
   private void processRuntimes(
     final NApplicationBuilderType appBuilder,
     final NRuntimeInventoryType inventory)
-    throws NException, InterruptedException, IOException
+    throws
+    NException,
+    InterruptedException,
+    IOException,
+    ExecutionException
   {
     final var log = this.getLog();
 
@@ -303,13 +374,15 @@ public final class NBuildMojo extends AbstractMojo
         inventory.runtimeDownload(actual);
 
       log.info("Downloading %s".formatted(actual.source()));
-      Thread.sleep(10L);
-      while (!download.future().isDone()) {
-        log.info("Progress: %s/%s".formatted(
-          Long.toUnsignedString(download.sizeReceived()),
-          Long.toUnsignedString(download.sizeExpected())
-        ));
-        Thread.sleep(1_000L);
+      try (var subscription = download.subscribe(
+        Duration.ofSeconds(1L),
+        progress -> {
+          log.info("Progress: %s/%s".formatted(
+            Long.toUnsignedString(progress.sizeReceived()),
+            Long.toUnsignedString(progress.sizeExpected())
+          ));
+        })) {
+        download.future().get();
       }
 
       if (!Objects.equals(
@@ -364,6 +437,16 @@ public final class NBuildMojo extends AbstractMojo
       if (!modules.isEmpty()) {
         appBuilder.runtimeSetMinimized(actual, modules);
       }
+
+      final var filter = runtime.unpackFilter();
+      if (!filter.isEmpty()) {
+        if (!modules.isEmpty()) {
+          this.getLog().warn(
+            "Runtime %s is minimized; includes and excludes are ignored"
+              .formatted(actual.id()));
+        }
+        appBuilder.runtimeSetUnpackFilter(actual, filter);
+      }
     }
   }
 
@@ -378,11 +461,30 @@ public final class NBuildMojo extends AbstractMojo
       new NApplicationWriterConfiguration(
         Paths.get(this.outputDirectory).toAbsolutePath(),
         inventory,
-        app
+        app,
+        Objects.requireNonNullElseGet(
+          this.copyParallelism,
+          NApplicationWriterConfiguration::defaultCopyParallelism).intValue(),
+        Objects.requireNonNullElseGet(
+          this.runtimeParallelism,
+          NApplicationWriterConfiguration::defaultRuntimeParallelism)
+          .intValue(),
+        this.copyStrategy,
+        this.incremental
       );
 
+    final var log = this.getLog();
     try (var writer = writers.create(configuration)) {
-      writer.execute();
+      writer.execute(progress -> {
+        if (progress.phaseCompleted()) {
+          log.info("write %s (%s files, %s bytes) %s".formatted(
+            progress.phase(),
+            Long.valueOf(progress.fileIndex()),
+            Long.valueOf(progress.byteCount()),
+            progress.phaseElapsed())
+          );
+        }
+      });
       return writer.outputPath();
     }
   }
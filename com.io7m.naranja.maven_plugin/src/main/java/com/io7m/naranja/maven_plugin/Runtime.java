@@ -18,6 +18,7 @@ package com.io7m.naranja.maven_plugin;
 
 import com.io7m.naranja.core.NArchitecture;
 import com.io7m.naranja.core.NOperatingSystem;
+import com.io7m.naranja.core.NRuntimeUnpackFilter;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -53,6 +54,18 @@ public final class Runtime
 
   private List<String> modules = new ArrayList<>();
 
+  /**
+   * Globs selecting the files that will be unpacked from the runtime.
+   */
+
+  private List<String> includes = new ArrayList<>();
+
+  /**
+   * Globs selecting the files that will not be unpacked from the runtime.
+   */
+
+  private List<String> excludes = new ArrayList<>();
+
   /**
    * A bundled runtime.
    */
@@ -97,4 +110,13 @@ public final class Runtime
   {
     return Set.copyOf(this.modules);
   }
+
+  /**
+   * @return The filter that selects the files unpacked from the runtime
+   */
+
+  public NRuntimeUnpackFilter unpackFilter()
+  {
+    return new NRuntimeUnpackFilter(this.includes, this.excludes);
+  }
 }
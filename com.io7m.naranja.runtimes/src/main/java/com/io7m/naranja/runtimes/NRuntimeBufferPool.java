@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.runtimes;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of direct buffers into which downloaded data is gathered before
+ * it is written to disk.
+ *
+ * <p>Direct buffers are expensive to allocate and are only freed when they
+ * are garbage collected, so buffers are returned to the pool when a
+ * transfer ends and reused by later transfers. At most a fixed number of
+ * buffers are retained; any others are left to the garbage collector.</p>
+ */
+
+final class NRuntimeBufferPool
+{
+  private final int bufferSize;
+  private final ArrayBlockingQueue<ByteBuffer> buffers;
+
+  NRuntimeBufferPool(
+    final int inBufferSize,
+    final int inRetained)
+  {
+    if (inBufferSize < 1) {
+      throw new IllegalArgumentException(
+        "Buffer size must be >= 1 (received %d)"
+          .formatted(Integer.valueOf(inBufferSize))
+      );
+    }
+    if (inRetained < 1) {
+      throw new IllegalArgumentException(
+        "Retained buffers must be >= 1 (received %d)"
+          .formatted(Integer.valueOf(inRetained))
+      );
+    }
+
+    this.bufferSize =
+      inBufferSize;
+    this.buffers =
+      new ArrayBlockingQueue<>(inRetained);
+  }
+
+  /**
+   * @return A cleared buffer, allocated if the pool is empty
+   */
+
+  ByteBuffer acquire()
+  {
+    final var buffer = this.buffers.poll();
+    if (buffer != null) {
+      return buffer;
+    }
+    return ByteBuffer.allocateDirect(this.bufferSize);
+  }
+
+  /**
+   * Return a buffer to the pool. The buffer must not be used afterwards.
+   *
+   * @param buffer The buffer
+   */
+
+  void release(
+    final ByteBuffer buffer)
+  {
+    buffer.clear();
+    this.buffers.offer(buffer);
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.runtimes;
+
+import com.io7m.naranja.core.NException;
+import com.io7m.naranja.core.NRuntime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * An on-disk cache of the remote runtime catalog.
+ *
+ * <p>Each runtime returned by the remote API is stored in
+ * {@code <id>.rtc} using the same format as the inventory's {@code .rti}
+ * files. Each query is stored in {@code query-<key>.properties} as the list
+ * of the ids of the runtimes that it returned. An entry is fresh if it was
+ * written less than the configured time-to-live ago; stale entries are only
+ * used if the remote API cannot be reached, if it answers a query that
+ * previously returned runtimes with no runtimes, or if the inventory is
+ * offline.</p>
+ */
+
+final class NRuntimeCatalog
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(NRuntimeCatalog.class);
+
+  private final Path directory;
+  private final Duration timeToLive;
+
+  NRuntimeCatalog(
+    final Path inDirectory,
+    final Duration inTimeToLive)
+  {
+    this.directory =
+      Objects.requireNonNull(inDirectory, "directory");
+    this.timeToLive =
+      Objects.requireNonNull(inTimeToLive, "timeToLive");
+  }
+
+  /**
+   * The freshness of a catalog entry.
+   */
+
+  enum Freshness
+  {
+    /**
+     * Only entries younger than the time-to-live are returned.
+     */
+
+    FRESH_ONLY,
+
+    /**
+     * Entries of any age are returned.
+     */
+
+    ANY
+  }
+
+  /**
+   * Find the runtimes returned by the query with the given key.
+   *
+   * @param key       The query key
+   * @param freshness The required freshness
+   *
+   * @return The runtimes, if the query is in the catalog
+   */
+
+  Optional<List<NRuntime>> query(
+    final String key,
+    final Freshness freshness)
+  {
+    final var file = this.directory.resolve("query-" + key + ".properties");
+    if (!this.isUsable(file, freshness)) {
+      return Optional.empty();
+    }
+
+    try {
+      final var props = new Properties();
+      try (var stream = Files.newInputStream(file)) {
+        props.load(stream);
+      }
+
+      final var ids = props.getProperty("runtimes", "");
+      final var results = new ArrayList<NRuntime>();
+      for (final var id : ids.split(",")) {
+        if (id.isBlank()) {
+          continue;
+        }
+        final var runtime = this.runtime(id, Freshness.ANY);
+        if (runtime.isEmpty()) {
+          return Optional.empty();
+        }
+        results.add(runtime.get());
+      }
+      return Optional.of(List.copyOf(results));
+    } catch (final IOException | IllegalArgumentException e) {
+      LOG.debug("{}: unreadable catalog entry: ", file, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Record the runtimes returned by the query with the given key.
+   *
+   * @param key      The query key
+   * @param runtimes The runtimes
+   *
+   * @throws Exception On errors
+   */
+
+  void queryStore(
+    final String key,
+    final List<NRuntime> runtimes)
+    throws Exception
+  {
+    for (final var runtime : runtimes) {
+      this.runtimeStore(runtime);
+    }
+
+    final var ids = new ArrayList<String>(runtimes.size());
+    for (final var runtime : runtimes) {
+      ids.add(runtime.id());
+    }
+
+    final var props = new Properties();
+    props.setProperty("runtimes", String.join(",", ids));
+
+    final var file = this.directory.resolve("query-" + key + ".properties");
+    final var fileTmp = this.temporaryOf(file);
+    try (var stream = Files.newOutputStream(fileTmp)) {
+      props.store(stream, "");
+    }
+    Files.move(fileTmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+  }
+
+  /**
+   * Find the runtime with the given id.
+   *
+   * @param id        The runtime id
+   * @param freshness The required freshness
+   *
+   * @return The runtime, if it is in the catalog
+   */
+
+  Optional<NRuntime> runtime(
+    final String id,
+    final Freshness freshness)
+  {
+    final Path file;
+    try {
+      file = NRuntimeLocalIndex.fileOf(this.directory, id, ".rtc");
+    } catch (final NException e) {
+      LOG.debug("unusable catalog entry: ", e);
+      return Optional.empty();
+    }
+
+    if (!this.isUsable(file, freshness)) {
+      return Optional.empty();
+    }
+
+    try {
+      return Optional.of(NRuntimeInventories.runtimeLoad(file));
+    } catch (final Exception e) {
+      LOG.debug("{}: unreadable catalog entry: ", file, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Record the given runtime.
+   *
+   * @param runtime The runtime
+   *
+   * @throws Exception On errors
+   */
+
+  void runtimeStore(
+    final NRuntime runtime)
+    throws Exception
+  {
+    final var file =
+      NRuntimeLocalIndex.fileOf(this.directory, runtime.id(), ".rtc");
+    final var fileTmp = this.temporaryOf(file);
+    NRuntimeInventories.runtimeWrite(runtime, fileTmp);
+    Files.move(fileTmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+  }
+
+  private Path temporaryOf(
+    final Path file)
+    throws IOException
+  {
+    Files.createDirectories(this.directory);
+    return Files.createTempFile(
+      this.directory,
+      file.getFileName().toString(),
+      ".tmp"
+    );
+  }
+
+  private boolean isUsable(
+    final Path file,
+    final Freshness freshness)
+  {
+    try {
+      final var written =
+        Files.getLastModifiedTime(file).toInstant();
+      return switch (freshness) {
+        case ANY -> true;
+        case FRESH_ONLY -> {
+          yield Instant.now().isBefore(written.plus(this.timeToLive));
+        }
+      };
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.runtimes;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * A body subscriber that writes a response body directly into a file
+ * channel.
+ *
+ * <p>The buffers delivered by the HTTP client are gathered into a large
+ * pooled direct buffer, and the direct buffer is written to the channel
+ * with a single positional write each time that it fills. Writing heap
+ * buffers to a channel would copy each of them into a temporary direct
+ * buffer and cost a system call per buffer. Positional writes do not
+ * move the channel's position, so several subscribers may write disjoint
+ * ranges of the same channel concurrently.</p>
+ *
+ * <p>At most {@code limit} octets are written; the subscription is
+ * cancelled once the limit is reached. The subscription is also cancelled,
+ * and the body completes with the number of octets written so far, if
+ * {@code cancelled} returns {@code true} or the subscriber is abandoned.
+ * Data received before an error is written before the body completes
+ * exceptionally, so that an interrupted download can be resumed.</p>
+ *
+ * <p>The subscriber's methods are synchronized, so that a transfer can be
+ * abandoned from another thread while buffers are being delivered.
+ * Deliveries are serial, so the monitor is otherwise uncontended.</p>
+ */
+
+final class NRuntimeChannelSubscriber
+  implements HttpResponse.BodySubscriber<Long>
+{
+  private final FileChannel file;
+  private final long limit;
+  private final NRuntimeBufferPool buffers;
+  private final LongConsumer onReceived;
+  private final BooleanSupplier cancelled;
+  private final CompletableFuture<Long> result;
+  private boolean abandoned;
+  private Flow.Subscription subscription;
+  private ByteBuffer buffer;
+  private long position;
+  private long written;
+  private boolean done;
+
+  NRuntimeChannelSubscriber(
+    final FileChannel inFile,
+    final long inPosition,
+    final long inLimit,
+    final NRuntimeBufferPool inBuffers,
+    final LongConsumer inOnReceived,
+    final BooleanSupplier inCancelled)
+  {
+    this.file =
+      Objects.requireNonNull(inFile, "file");
+    this.position =
+      inPosition;
+    this.limit =
+      inLimit;
+    this.buffers =
+      Objects.requireNonNull(inBuffers, "buffers");
+    this.onReceived =
+      Objects.requireNonNull(inOnReceived, "onReceived");
+    this.cancelled =
+      Objects.requireNonNull(inCancelled, "cancelled");
+    this.result =
+      new CompletableFuture<>();
+  }
+
+  /**
+   * Abandon the transfer. The subscription is cancelled immediately, any
+   * gathered data is written, and the body completes with the number of
+   * octets written so far.
+   */
+
+  synchronized void abandon()
+  {
+    this.abandoned = true;
+    if (this.done || this.subscription == null) {
+      return;
+    }
+
+    try {
+      this.finish(true);
+    } catch (final IOException e) {
+      this.result.completeExceptionally(e);
+    }
+  }
+
+  @Override
+  public CompletionStage<Long> getBody()
+  {
+    return this.result;
+  }
+
+  @Override
+  public synchronized void onSubscribe(
+    final Flow.Subscription inSubscription)
+  {
+    if (this.subscription != null) {
+      inSubscription.cancel();
+      return;
+    }
+
+    this.subscription = inSubscription;
+    if (this.abandoned) {
+      this.done = true;
+      inSubscription.cancel();
+      this.result.complete(Long.valueOf(0L));
+      return;
+    }
+
+    this.buffer = this.buffers.acquire();
+    inSubscription.request(1L);
+  }
+
+  @Override
+  public synchronized void onNext(
+    final List<ByteBuffer> items)
+  {
+    if (this.done) {
+      return;
+    }
+
+    try {
+      if (this.cancelled.getAsBoolean()) {
+        this.finish(true);
+        return;
+      }
+
+      final var writtenBefore = this.written;
+      for (final var item : items) {
+        this.gather(item);
+      }
+      this.onReceived.accept(this.written - writtenBefore);
+
+      if (this.written == this.limit) {
+        this.finish(true);
+        return;
+      }
+      this.subscription.request(1L);
+    } catch (final IOException e) {
+      if (!this.done) {
+        this.done = true;
+        this.subscription.cancel();
+      }
+      this.release();
+      this.result.completeExceptionally(e);
+    }
+  }
+
+  private void gather(
+    final ByteBuffer item)
+    throws IOException
+  {
+    while (item.hasRemaining() && this.written < this.limit) {
+      final var count =
+        (int) Math.min(
+          Math.min(item.remaining(), this.buffer.remaining()),
+          this.limit - this.written
+        );
+
+      this.buffer.put(this.buffer.position(), item, item.position(), count);
+      this.buffer.position(this.buffer.position() + count);
+      item.position(item.position() + count);
+      this.written += count;
+
+      if (!this.buffer.hasRemaining()) {
+        this.flush();
+      }
+    }
+  }
+
+  private void flush()
+    throws IOException
+  {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.position += this.file.write(this.buffer, this.position);
+    }
+    this.buffer.clear();
+  }
+
+  private void finish(
+    final boolean cancel)
+    throws IOException
+  {
+    this.done = true;
+    if (cancel) {
+      this.subscription.cancel();
+    }
+    try {
+      this.flush();
+    } finally {
+      this.release();
+    }
+    this.result.complete(Long.valueOf(this.written));
+  }
+
+  private void release()
+  {
+    if (this.buffer != null) {
+      this.buffers.release(this.buffer);
+      this.buffer = null;
+    }
+  }
+
+  @Override
+  public synchronized void onError(
+    final Throwable error)
+  {
+    if (this.done) {
+      return;
+    }
+
+    this.done = true;
+    try {
+      if (this.buffer != null) {
+        this.flush();
+      }
+    } catch (final IOException e) {
+      error.addSuppressed(e);
+    } finally {
+      this.release();
+    }
+    this.result.completeExceptionally(error);
+  }
+
+  @Override
+  public synchronized void onComplete()
+  {
+    if (this.done) {
+      return;
+    }
+
+    try {
+      this.finish(false);
+    } catch (final IOException e) {
+      this.result.completeExceptionally(e);
+    }
+  }
+}
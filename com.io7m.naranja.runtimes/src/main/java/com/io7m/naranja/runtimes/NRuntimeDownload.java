@@ -0,0 +1,823 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.runtimes;
+
+import com.io7m.naranja.core.NRuntime;
+import com.io7m.naranja.core.NRuntimeDownloadProgress;
+import com.io7m.naranja.core.NRuntimeDownloadSubscriptionType;
+import com.io7m.naranja.core.NRuntimeDownloadType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A download of a single runtime.
+ */
+
+final class NRuntimeDownload
+  implements NRuntimeDownloadType, Runnable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(NRuntimeDownload.class);
+
+  private final NRuntime runtime;
+  private final CompletableFuture<Path> future;
+  private final NRuntimeInventories.RuntimePaths paths;
+  private final AtomicLong sizeReceived;
+  private final CopyOnWriteArrayList<Subscription> subscriptions;
+  private volatile TransferStart transferStart;
+  private volatile boolean finished;
+  private final ReentrantLock runtimeLock;
+  private final NRuntimeInventoryConfiguration configuration;
+  private final HttpClient client;
+  private final NRuntimeBufferPool buffers;
+  private final Consumer<NRuntime> onDownloaded;
+  private volatile boolean segmentFailed;
+
+  NRuntimeDownload(
+    final NRuntimeInventoryConfiguration inConfiguration,
+    final HttpClient inClient,
+    final NRuntimeBufferPool inBuffers,
+    final ReentrantLock inRuntimeLock,
+    final NRuntime inRuntime,
+    final CompletableFuture<Path> inFuture,
+    final NRuntimeInventories.RuntimePaths inPaths,
+    final Consumer<NRuntime> inOnDownloaded)
+  {
+    this.runtimeLock =
+      Objects.requireNonNull(inRuntimeLock, "runtimeLock");
+    this.runtime =
+      Objects.requireNonNull(inRuntime, "runtime");
+    this.future =
+      Objects.requireNonNull(inFuture, "future");
+    this.paths =
+      Objects.requireNonNull(inPaths, "paths");
+    this.configuration =
+      Objects.requireNonNull(inConfiguration, "configuration");
+    this.client =
+      Objects.requireNonNull(inClient, "client");
+    this.buffers =
+      Objects.requireNonNull(inBuffers, "buffers");
+    this.onDownloaded =
+      Objects.requireNonNull(inOnDownloaded, "onDownloaded");
+    this.sizeReceived =
+      new AtomicLong();
+    this.subscriptions =
+      new CopyOnWriteArrayList<>();
+  }
+
+  @Override
+  public long sizeExpected()
+  {
+    return this.runtime.size();
+  }
+
+  @Override
+  public long sizeReceived()
+  {
+    return this.sizeReceived.get();
+  }
+
+  @Override
+  public CompletableFuture<Path> future()
+  {
+    return this.future;
+  }
+
+  @Override
+  public NRuntimeDownloadSubscriptionType subscribe(
+    final Duration interval,
+    final Consumer<NRuntimeDownloadProgress> receiver)
+  {
+    Objects.requireNonNull(interval, "interval");
+    Objects.requireNonNull(receiver, "receiver");
+
+    final var subscription = new Subscription(interval, receiver);
+    this.subscriptions.add(subscription);
+    if (this.finished) {
+      subscription.deliverFinal(this.progressNow(true));
+    }
+    return subscription;
+  }
+
+  /**
+   * Fail the download without running it.
+   *
+   * @param exception The reason for the failure
+   */
+
+  void fail(
+    final Throwable exception)
+  {
+    this.publishFinal();
+    this.future.completeExceptionally(exception);
+  }
+
+  /**
+   * The time at which a transfer started, and the offset in the file at
+   * which it started.
+   */
+
+  private record TransferStart(
+    long nanos,
+    long offset)
+  {
+
+  }
+
+  private void transferStarted(
+    final long offset)
+  {
+    this.sizeReceived.set(offset);
+    this.transferStart = new TransferStart(System.nanoTime(), offset);
+  }
+
+  private void transferReceived(
+    final long octets)
+  {
+    this.sizeReceived.addAndGet(octets);
+    if (this.subscriptions.isEmpty()) {
+      return;
+    }
+
+    final var now = System.nanoTime();
+    for (final var subscription : this.subscriptions) {
+      if (subscription.isDue(now)) {
+        subscription.deliver(this.progressNow(false));
+      }
+    }
+  }
+
+  private void publishFinal()
+  {
+    this.finished = true;
+    for (final var subscription : this.subscriptions) {
+      subscription.deliverFinal(this.progressNow(true));
+    }
+  }
+
+  private NRuntimeDownloadProgress progressNow(
+    final boolean completed)
+  {
+    final var expected = this.runtime.size();
+    final var received = this.sizeReceived.get();
+    final var start = this.transferStart;
+    if (start == null) {
+      return new NRuntimeDownloadProgress(
+        expected,
+        received,
+        Duration.ZERO,
+        0.0,
+        Optional.empty(),
+        completed
+      );
+    }
+
+    final var elapsed =
+      Duration.ofNanos(System.nanoTime() - start.nanos());
+    final var elapsedSeconds =
+      (double) elapsed.toNanos() / 1_000_000_000.0;
+    final var rate =
+      elapsedSeconds > 0.0
+        ? (double) (received - start.offset()) / elapsedSeconds
+        : 0.0;
+
+    final Optional<Duration> remaining;
+    if (rate > 0.0) {
+      final var seconds = (double) Math.max(0L, expected - received) / rate;
+      remaining = Optional.of(Duration.ofNanos((long) (seconds * 1.0e9)));
+    } else {
+      remaining = Optional.empty();
+    }
+
+    return new NRuntimeDownloadProgress(
+      expected,
+      received,
+      elapsed,
+      rate,
+      remaining,
+      completed
+    );
+  }
+
+  private final class Subscription
+    implements NRuntimeDownloadSubscriptionType
+  {
+    private final long intervalNanos;
+    private final Consumer<NRuntimeDownloadProgress> receiver;
+    private final AtomicLong deliveredNanos;
+    private final AtomicBoolean deliveredFinal;
+
+    Subscription(
+      final Duration inInterval,
+      final Consumer<NRuntimeDownloadProgress> inReceiver)
+    {
+      this.intervalNanos =
+        inInterval.toNanos();
+      this.receiver =
+        inReceiver;
+      this.deliveredNanos =
+        new AtomicLong(System.nanoTime() - this.intervalNanos);
+      this.deliveredFinal =
+        new AtomicBoolean(false);
+    }
+
+    /**
+     * @return {@code true} if a progress value is due, claiming the
+     * delivery if so; at most one thread is told a value is due per interval
+     */
+
+    boolean isDue(
+      final long now)
+    {
+      final var last = this.deliveredNanos.get();
+      return now - last >= this.intervalNanos
+        && this.deliveredNanos.compareAndSet(last, now);
+    }
+
+    void deliver(
+      final NRuntimeDownloadProgress progress)
+    {
+      try {
+        this.receiver.accept(progress);
+      } catch (final Exception e) {
+        LOG.debug("progress receiver raised an exception: ", e);
+      }
+    }
+
+    void deliverFinal(
+      final NRuntimeDownloadProgress progress)
+    {
+      if (this.deliveredFinal.compareAndSet(false, true)) {
+        this.deliver(progress);
+      }
+    }
+
+    @Override
+    public void close()
+    {
+      NRuntimeDownload.this.subscriptions.remove(this);
+    }
+  }
+
+  @Override
+  public void run()
+  {
+    try {
+      Files.createDirectories(this.paths.rtFileTmp().getParent());
+
+      this.runtimeLock.lock();
+      try {
+        try (var file =
+               FileChannel.open(this.paths.rtFileTmp(), CREATE, WRITE)) {
+          try (var lock = file.lock()) {
+            this.executeDownload(file);
+          }
+        }
+      } finally {
+        this.runtimeLock.unlock();
+      }
+
+      this.onDownloaded.accept(this.runtime);
+      this.publishFinal();
+      this.future.complete(this.paths.rtFile());
+    } catch (final Throwable ex) {
+      this.publishFinal();
+      this.future.completeExceptionally(ex);
+    }
+  }
+
+  private void executeDownload(
+    final FileChannel file)
+    throws Exception
+  {
+    if (!this.downloadIsRequired()) {
+      this.transferStarted(this.runtime.size());
+      return;
+    }
+
+    final var segments =
+      this.segmentsFor(file.size());
+    if (segments.size() > 1 && this.transferSegmented(file, segments)) {
+      this.downloadFinish(file);
+      return;
+    }
+
+    final var transfer =
+      this.startTransfer(file.size());
+    final var response =
+      transfer.response();
+    final var offset =
+      transfer.offset();
+
+    file.truncate(offset);
+    this.transferStarted(offset);
+    this.transferBody(response, file, offset, Long.MAX_VALUE, () -> false);
+    this.downloadFinish(file);
+  }
+
+  private void downloadFinish(
+    final FileChannel file)
+    throws Exception
+  {
+    /*
+     * A file that is too short is kept so that the download can be
+     * resumed. A file that is too long cannot be resumed.
+     */
+
+    final var fileSize = Files.size(this.paths.rtFileTmp());
+    if (fileSize != this.runtime.size()) {
+      if (fileSize > this.runtime.size()) {
+        file.truncate(0L);
+      }
+      throw new IOException(
+        "Expected to receive %s octets, but received %s"
+          .formatted(
+            Long.toUnsignedString(this.sizeExpected()),
+            Long.toUnsignedString(fileSize))
+      );
+    }
+
+    Files.move(
+      this.paths.rtFileTmp(),
+      this.paths.rtFile(),
+      REPLACE_EXISTING,
+      ATOMIC_MOVE
+    );
+
+    NRuntimeInventories.runtimeWrite(this.runtime, this.paths.rtiFile());
+  }
+
+  /**
+   * An inclusive byte range of the runtime.
+   */
+
+  private record Segment(
+    long start,
+    long end)
+  {
+    long length()
+    {
+      return (this.end - this.start) + 1L;
+    }
+
+    String rangeHeader()
+    {
+      return "bytes=%d-%d".formatted(
+        Long.valueOf(this.start),
+        Long.valueOf(this.end)
+      );
+    }
+  }
+
+  /**
+   * Divide the runtime into byte ranges. A partial file left by an
+   * interrupted single stream download is resumed as a single stream.
+   */
+
+  private List<Segment> segmentsFor(
+    final long partialSize)
+  {
+    final var size = this.runtime.size();
+    if (partialSize > 0L && partialSize < size) {
+      return List.of(new Segment(0L, size - 1L));
+    }
+
+    final var count =
+      this.configuration.downloadSegmentsFor(size);
+    final var segments =
+      new ArrayList<Segment>(count);
+    final var length = size / count;
+    for (int index = 0; index < count; ++index) {
+      final var start = length * index;
+      final var end = index == count - 1 ? size - 1L : start + length - 1L;
+      segments.add(new Segment(start, end));
+    }
+    return List.copyOf(segments);
+  }
+
+  /**
+   * Download the given byte ranges concurrently, writing each range at
+   * its own position in the file. The first range is requested before
+   * any others in order to determine whether the server supports range
+   * requests at all; if it does not, nothing is written and {@code false}
+   * is returned so that the runtime can be downloaded as a single stream.
+   * A file with holes cannot be resumed, so the file is truncated if
+   * any range fails.
+   */
+
+  private boolean transferSegmented(
+    final FileChannel file,
+    final List<Segment> segments)
+    throws Exception
+  {
+    final var first = segments.get(0);
+    final var probe = this.sendSegmentRequest(first);
+    if (!isResumedAt(probe, first.start())) {
+      LOG.info(
+        "{}: server does not support range requests (status {}); "
+        + "downloading as a single stream",
+        this.runtime.source(),
+        Integer.valueOf(probe.statusCode())
+      );
+      discard(probe);
+      return false;
+    }
+
+    LOG.info(
+      "{}: downloading in {} segments",
+      this.runtime.source(),
+      Integer.valueOf(segments.size())
+    );
+
+    file.truncate(0L);
+    this.transferStarted(0L);
+    this.segmentFailed = false;
+
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      final var tasks = new ArrayList<Future<?>>(segments.size());
+      tasks.add(executor.submit(() -> {
+        this.transferSegment(file, first, probe);
+        return null;
+      }));
+
+      for (final var segment : segments.subList(1, segments.size())) {
+        tasks.add(executor.submit(() -> {
+          this.transferSegmentRequested(file, segment);
+          return null;
+        }));
+      }
+
+      awaitSegments(tasks);
+    } catch (final Exception e) {
+      file.truncate(0L);
+      throw e;
+    }
+    return true;
+  }
+
+  private static void awaitSegments(
+    final List<Future<?>> tasks)
+    throws Exception
+  {
+    Exception failure = null;
+    for (final var task : tasks) {
+      try {
+        task.get();
+      } catch (final ExecutionException e) {
+        if (failure == null && e.getCause() instanceof final Exception x) {
+          failure = x;
+        } else if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private HttpResponse<Flow.Publisher<List<ByteBuffer>>> sendSegmentRequest(
+    final Segment segment)
+    throws IOException, InterruptedException
+  {
+    return this.client.send(
+      HttpRequest.newBuilder(this.runtime.source())
+        .timeout(this.configuration.httpRequestTimeout())
+        .header("Range", segment.rangeHeader())
+        .GET()
+        .build(),
+      HttpResponse.BodyHandlers.ofPublisher()
+    );
+  }
+
+  private void transferSegmentRequested(
+    final FileChannel file,
+    final Segment segment)
+    throws IOException, InterruptedException
+  {
+    final HttpResponse<Flow.Publisher<List<ByteBuffer>>> response;
+    try {
+      response = this.sendSegmentRequest(segment);
+    } catch (final IOException e) {
+      this.segmentFailed = true;
+      throw e;
+    }
+    this.transferSegment(file, segment, response);
+  }
+
+  private void transferSegment(
+    final FileChannel file,
+    final Segment segment,
+    final HttpResponse<Flow.Publisher<List<ByteBuffer>>> response)
+    throws IOException, InterruptedException
+  {
+    try {
+      if (!isResumedAt(response, segment.start())) {
+        discard(response);
+        throw new IOException(
+          "%s: server did not return range %s (status %s)".formatted(
+            this.runtime.source(),
+            segment.rangeHeader(),
+            Integer.valueOf(response.statusCode())
+          ));
+      }
+
+      this.transferSegmentBody(file, segment, response);
+    } catch (final IOException e) {
+      this.segmentFailed = true;
+      throw e;
+    }
+  }
+
+  private void transferSegmentBody(
+    final FileChannel file,
+    final Segment segment,
+    final HttpResponse<Flow.Publisher<List<ByteBuffer>>> response)
+    throws IOException, InterruptedException
+  {
+    final var written =
+      this.transferBody(
+        response,
+        file,
+        segment.start(),
+        segment.length(),
+        () -> this.segmentFailed
+      );
+
+    final var remaining = segment.length() - written;
+    if (remaining > 0L && this.segmentFailed) {
+      throw new IOException("Another range of the download failed.");
+    }
+    if (remaining > 0L) {
+      throw new IOException(
+        "%s: range %s ended %s octets early".formatted(
+          this.runtime.source(),
+          segment.rangeHeader(),
+          Long.toUnsignedString(remaining)
+        ));
+    }
+  }
+
+  /**
+   * Write at most {@code limit} octets of the response body into the file
+   * starting at {@code position}, stopping early if {@code cancelled}
+   * returns {@code true}.
+   *
+   * @return The number of octets written
+   */
+
+  private long transferBody(
+    final HttpResponse<Flow.Publisher<List<ByteBuffer>>> response,
+    final FileChannel file,
+    final long position,
+    final long limit,
+    final BooleanSupplier cancelled)
+    throws IOException, InterruptedException
+  {
+    final var subscriber =
+      new NRuntimeChannelSubscriber(
+        file,
+        position,
+        limit,
+        this.buffers,
+        this::transferReceived,
+        cancelled
+      );
+
+    response.body().subscribe(subscriber);
+    try {
+      return subscriber.getBody()
+        .toCompletableFuture()
+        .get()
+        .longValue();
+    } catch (final InterruptedException e) {
+      subscriber.abandon();
+      throw e;
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof final IOException x) {
+        throw x;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Discard the body of a response that will not be read, releasing the
+   * connection.
+   */
+
+  private static void discard(
+    final HttpResponse<Flow.Publisher<List<ByteBuffer>>> response)
+  {
+    response.body().subscribe(new Discarding());
+  }
+
+  /**
+   * A subscriber that cancels its subscription immediately.
+   */
+
+  private static final class Discarding
+    implements Flow.Subscriber<List<ByteBuffer>>
+  {
+    Discarding()
+    {
+
+    }
+
+    @Override
+    public void onSubscribe(
+      final Flow.Subscription subscription)
+    {
+      subscription.cancel();
+    }
+
+    @Override
+    public void onNext(
+      final List<ByteBuffer> item)
+    {
+
+    }
+
+    @Override
+    public void onError(
+      final Throwable throwable)
+    {
+
+    }
+
+    @Override
+    public void onComplete()
+    {
+
+    }
+  }
+
+  /**
+   * A response, and the offset in the file at which the response body
+   * begins.
+   */
+
+  private record Transfer(
+    HttpResponse<Flow.Publisher<List<ByteBuffer>>> response,
+    long offset)
+  {
+
+  }
+
+  /**
+   * Start the transfer of the runtime. If a previous download was
+   * interrupted, try to resume it from the end of the partial file. A
+   * partial file that is not smaller than the expected size cannot be a
+   * prefix of the runtime.
+   */
+
+  private Transfer startTransfer(
+    final long partialSize)
+    throws IOException, InterruptedException
+  {
+    var offset = partialSize;
+    if (offset >= this.runtime.size()) {
+      offset = 0L;
+    }
+
+    var response = this.sendRequest(offset);
+    if (offset > 0L && !isResumedAt(response, offset)) {
+      LOG.info(
+        "{}: server did not resume at {} (status {}); downloading all",
+        this.runtime.source(),
+        Long.valueOf(offset),
+        Integer.valueOf(response.statusCode())
+      );
+
+      offset = 0L;
+      if (response.statusCode() != 200) {
+        discard(response);
+        response = this.sendRequest(offset);
+      }
+    }
+
+    if (response.statusCode() >= 400) {
+      discard(response);
+      throw new IOException(
+        "%s: %s".formatted(
+          this.runtime.source(),
+          Integer.valueOf(response.statusCode())
+        ));
+    }
+
+    return new Transfer(response, offset);
+  }
+
+  private HttpResponse<Flow.Publisher<List<ByteBuffer>>> sendRequest(
+    final long offset)
+    throws IOException, InterruptedException
+  {
+    final var builder =
+      HttpRequest.newBuilder(this.runtime.source())
+        .timeout(this.configuration.httpRequestTimeout())
+        .GET();
+
+    if (offset > 0L) {
+      LOG.info(
+        "{}: resuming from {}",
+        this.runtime.source(),
+        Long.valueOf(offset));
+      builder.header("Range", "bytes=%d-".formatted(Long.valueOf(offset)));
+    }
+
+    return this.client.send(
+      builder.build(),
+      HttpResponse.BodyHandlers.ofPublisher()
+    );
+  }
+
+  private static final Pattern CONTENT_RANGE =
+    Pattern.compile("bytes\\s+([0-9]+)-([0-9]+)/([0-9]+|\\*)");
+
+  /**
+   * @return {@code true} if the response is a partial response that starts
+   * at exactly the given offset
+   */
+
+  private static boolean isResumedAt(
+    final HttpResponse<?> response,
+    final long offset)
+  {
+    if (response.statusCode() != 206) {
+      return false;
+    }
+
+    final var header =
+      response.headers().firstValue("Content-Range");
+    if (header.isEmpty()) {
+      return false;
+    }
+
+    final var matcher = CONTENT_RANGE.matcher(header.get().trim());
+    if (!matcher.matches()) {
+      return false;
+    }
+
+    try {
+      return Long.parseLong(matcher.group(1)) == offset;
+    } catch (final NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private boolean downloadIsRequired()
+  {
+    try {
+      final var fileSize = Files.size(this.paths.rtFile());
+      return (fileSize != this.runtime.size());
+    } catch (final IOException e) {
+      return true;
+    }
+  }
+}
@@ -16,9 +16,10 @@
 
 package com.io7m.naranja.runtimes;
 
-import com.io7m.jmulticlose.core.CloseableCollection;
 import com.io7m.naranja.core.NArchitecture;
 import com.io7m.naranja.core.NException;
+import com.io7m.naranja.core.NFileHashListenerType;
+import com.io7m.naranja.core.NHashing;
 import com.io7m.naranja.core.NOperatingSystem;
 import com.io7m.naranja.core.NRuntime;
 import com.io7m.naranja.core.NRuntimeArchiveType;
@@ -26,6 +27,7 @@ import com.io7m.naranja.core.NRuntimeDistribution;
 import com.io7m.naranja.core.NRuntimeDownloadType;
 import com.io7m.naranja.core.NRuntimeInventoryFactoryType;
 import com.io7m.naranja.core.NRuntimeInventoryType;
+import com.io7m.naranja.core.NRuntimeUnpackFilter;
 import eu.hansolo.jdktools.Architecture;
 import eu.hansolo.jdktools.ArchiveType;
 import eu.hansolo.jdktools.Latest;
@@ -36,45 +38,55 @@ import eu.hansolo.jdktools.TermOfSupport;
 import eu.hansolo.jdktools.versioning.VersionNumber;
 import io.foojay.api.discoclient.DiscoClient;
 import io.foojay.api.discoclient.PropertyManager;
+import io.foojay.api.discoclient.pkg.Distribution;
 import io.foojay.api.discoclient.pkg.Pkg;
 import io.foojay.api.discoclient.util.Constants;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.Predicate;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.spi.ToolProvider;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.ZipInputStream;
 
 import static com.io7m.naranja.core.NErrorCodes.errorIo;
+import static com.io7m.naranja.runtimes.NRuntimeCatalog.Freshness.ANY;
+import static com.io7m.naranja.runtimes.NRuntimeCatalog.Freshness.FRESH_ONLY;
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
 import static java.nio.file.StandardOpenOption.CREATE;
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Objects.requireNonNullElse;
 
@@ -109,26 +121,73 @@ public final class NRuntimeInventories
   public NRuntimeInventoryType openWithURI(
     final Path baseDirectory,
     final URI baseURI)
+  {
+    return this.openWithURI(
+      baseDirectory,
+      baseURI,
+      NRuntimeInventoryConfiguration.defaults()
+    );
+  }
+
+  /**
+   * Open an inventory with the API URI.
+   *
+   * @param baseDirectory The base directory
+   * @param baseURI       The base URI for the client
+   * @param configuration The inventory configuration
+   *
+   * @return An inventory
+   */
+
+  public NRuntimeInventoryType openWithURI(
+    final Path baseDirectory,
+    final URI baseURI,
+    final NRuntimeInventoryConfiguration configuration)
   {
     PropertyManager.INSTANCE.set(
       Constants.PROPERTY_KEY_DISCO_URL,
       baseURI.toString()
     );
     final var client = new DiscoClient();
-    return new Inventory(baseDirectory, client);
+    return new Inventory(baseDirectory, baseURI, client, configuration);
   }
 
   @Override
   public NRuntimeInventoryType open(
     final Path baseDirectory)
   {
-    return new Inventory(baseDirectory, new DiscoClient());
+    return this.open(
+      baseDirectory,
+      NRuntimeInventoryConfiguration.defaults()
+    );
+  }
+
+  /**
+   * Open an inventory.
+   *
+   * @param baseDirectory The base directory
+   * @param configuration The inventory configuration
+   *
+   * @return An inventory
+   */
+
+  public NRuntimeInventoryType open(
+    final Path baseDirectory,
+    final NRuntimeInventoryConfiguration configuration)
+  {
+    return new Inventory(
+      baseDirectory,
+      URI.create(Constants.DISCO_API_BASE_URL),
+      new DiscoClient(),
+      configuration
+    );
   }
 
-  private record RuntimePaths(
+  record RuntimePaths(
     Path rtFile,
     Path rtFileTmp,
-    Path rtiFile)
+    Path rtiFile,
+    Path rtxDirectory)
   {
     static RuntimePaths create(
       final Path baseDirectory,
@@ -140,11 +199,14 @@ public final class NRuntimeInventories
         baseDirectory.resolve(runtime.id() + ".rti");
       final var outputRTTmp =
         baseDirectory.resolve(runtime.id() + ".rt.tmp");
+      final var outputRTX =
+        baseDirectory.resolve(runtime.id() + ".rtx");
 
       return new RuntimePaths(
         outputRT,
         outputRTTmp,
-        outputRTI
+        outputRTI,
+        outputRTX
       );
     }
   }
@@ -153,21 +215,121 @@ public final class NRuntimeInventories
   {
     private final Path baseDirectory;
     private final DiscoClient client;
+    private final URI baseURI;
+    private final ReentrantLock distributionsLock;
+    private List<Distribution> distributionsCached;
     private final Path runtimes;
-    private final ReentrantLock mainLock;
+    private final ConcurrentHashMap<String, ReentrantLock> runtimeLocks;
+    private final NRuntimeInventoryConfiguration configuration;
+    private final HttpClient httpClient;
+    private final ExecutorService downloadExecutorOwned;
+    private final Executor downloadExecutor;
+    private final Semaphore downloadPermits;
+    private final NRuntimeBufferPool downloadBuffers;
+    private final NRuntimeUnpacker unpacker;
+    private final ConcurrentHashMap<String, NRuntimeDownload> downloads;
+    private final NRuntimeCatalog catalog;
+    private final NRuntimeLocalIndex localIndex;
 
     Inventory(
       final Path inBaseDirectory,
-      final DiscoClient inClient)
+      final URI inBaseURI,
+      final DiscoClient inClient,
+      final NRuntimeInventoryConfiguration inConfiguration)
     {
+      this.configuration =
+        Objects.requireNonNull(inConfiguration, "configuration");
       this.baseDirectory =
         Objects.requireNonNull(inBaseDirectory, "baseDirectory");
       this.client =
         Objects.requireNonNull(inClient, "client");
+      this.baseURI =
+        Objects.requireNonNull(inBaseURI, "baseURI");
+      this.distributionsLock =
+        new ReentrantLock();
       this.runtimes =
         this.baseDirectory.resolve("runtimes");
-      this.mainLock =
-        new ReentrantLock();
+      this.runtimeLocks =
+        new ConcurrentHashMap<>();
+      this.httpClient =
+        createHttpClient(inConfiguration);
+      this.downloadPermits =
+        new Semaphore(inConfiguration.downloadConcurrency());
+      this.downloadBuffers =
+        new NRuntimeBufferPool(
+          inConfiguration.downloadBufferSize(),
+          Math.max(
+            1,
+            inConfiguration.downloadConcurrency()
+            * inConfiguration.downloadSegments())
+        );
+      this.downloads =
+        new ConcurrentHashMap<>();
+      this.unpacker =
+        new NRuntimeUnpacker(inConfiguration.unpackParallelism());
+      this.localIndex =
+        new NRuntimeLocalIndex(this.runtimes);
+      this.catalog =
+        new NRuntimeCatalog(
+          this.baseDirectory.resolve("catalog"),
+          inConfiguration.catalogTimeToLive()
+        );
+
+      /*
+       * Downloads spend nearly all of their time blocked on I/O, so unless
+       * the caller supplies an executor, each download runs on its own
+       * virtual thread. The semaphore bounds the number of transfers that
+       * can be in progress at any one time.
+       */
+
+      final var provided = inConfiguration.downloadExecutor();
+      if (provided.isPresent()) {
+        this.downloadExecutorOwned = null;
+        this.downloadExecutor = provided.get();
+      } else {
+        this.downloadExecutorOwned =
+          Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual()
+              .name("com.io7m.naranja.runtimes.download.", 0L)
+              .factory()
+          );
+        this.downloadExecutor = this.downloadExecutorOwned;
+      }
+    }
+
+    /**
+     * All downloads share a single client so that connections, TLS sessions
+     * and, for HTTP/2, streams over a single connection can be reused.
+     */
+
+    private static HttpClient createHttpClient(
+      final NRuntimeInventoryConfiguration configuration)
+    {
+      final var builder =
+        HttpClient.newBuilder()
+          .followRedirects(HttpClient.Redirect.NORMAL)
+          .version(configuration.httpVersion())
+          .connectTimeout(configuration.httpConnectTimeout());
+
+      configuration.httpExecutor().ifPresent(builder::executor);
+      return builder.build();
+    }
+
+    /**
+     * Operations on a runtime hold the runtime's lock in addition to a
+     * {@code FileChannel} lock on the runtime's files. The {@code FileChannel}
+     * lock excludes other processes, but cannot be acquired twice in the same
+     * process; the runtime lock excludes other threads. Operations on
+     * different runtimes do not block each other.
+     */
+
+    private ReentrantLock lockFor(
+      final NRuntime runtime)
+    {
+      return this.runtimeLocks.computeIfAbsent(
+        runtime.id(),
+        id -> new ReentrantLock()
+      );
     }
 
     @Override
@@ -182,50 +344,100 @@ public final class NRuntimeInventories
       Objects.requireNonNull(architectures, "architectures");
       Objects.requireNonNull(distributions, "distributions");
 
-      try {
-        final var discoArches =
-          architectures.stream()
-            .map(a -> Architecture.fromText(a.name()))
-            .collect(Collectors.toUnmodifiableSet());
-
-        final var discoOperatingSystems =
-          operatingSystems.stream()
-            .map(a -> OperatingSystem.fromText(a.name()))
-            .collect(Collectors.toUnmodifiableSet());
-
-        final var packages = new ArrayList<Pkg>();
-        for (final var os : discoOperatingSystems) {
-          for (final var arch : discoArches) {
-            packages.addAll(
-              findRuntimes(
-                this.client,
-                arch,
-                os,
-                jdkVersion,
-                name -> {
-                  for (final var distribution : distributions) {
-                    if (name.equalsIgnoreCase(distribution.name())) {
-                      return true;
-                    }
-                  }
-                  return false;
-                }
-              )
+      final var key =
+        catalogKeyOf(
+          operatingSystems,
+          architectures,
+          distributions,
+          jdkVersion
+        );
+
+      return this.catalogOr(
+        () -> this.catalog.query(key, FRESH_ONLY),
+        () -> this.catalog.query(key, ANY),
+        () -> {
+          final var results =
+            this.runtimesQueryRemotely(
+              operatingSystems,
+              architectures,
+              distributions,
+              jdkVersion
             );
+
+          /*
+           * The remote API may answer with nothing during an outage rather
+           * than failing. An empty answer must not replace a cached answer
+           * that was not empty, so it is treated as a failure.
+           */
+
+          if (results.isEmpty()) {
+            final var previous = this.catalog.query(key, ANY);
+            if (previous.filter(r -> !r.isEmpty()).isPresent()) {
+              throw new IOException(
+                "The remote API returned no runtimes for a query that "
+                + "previously returned runtimes."
+              );
+            }
           }
+
+          this.catalog.queryStore(key, results);
+          return results;
         }
+      );
+    }
 
-        return packages.stream()
-          .map(pack -> {
-            try {
-              return this.pkgToRuntime(pack);
-            } catch (final IOException e) {
-              throw new UncheckedIOException(e);
-            }
-          })
-          .toList();
+    /**
+     * The type of functions that query the remote API.
+     *
+     * @param <T> The type of results
+     */
+
+    private interface RemoteQueryType<T>
+    {
+      T execute()
+        throws Exception;
+    }
+
+    /**
+     * Answer a query from the catalog if the catalog holds a fresh answer,
+     * and from the remote API otherwise. If the remote API fails, or if the
+     * inventory is offline, a stale answer from the catalog is used if one
+     * exists.
+     */
+
+    private <T> T catalogOr(
+      final Supplier<Optional<T>> fresh,
+      final Supplier<Optional<T>> stale,
+      final RemoteQueryType<T> remote)
+      throws NException
+    {
+      if (this.configuration.offline()) {
+        return stale.get()
+          .orElseThrow(() -> {
+            return new NException(
+              "The inventory is offline, and the catalog contains no "
+              + "results for this query.",
+              errorIo()
+            );
+          });
+      }
+
+      final var cached = fresh.get();
+      if (cached.isPresent()) {
+        return cached.get();
+      }
 
+      try {
+        return remote.execute();
       } catch (final Exception e) {
+        final var fallback = stale.get();
+        if (fallback.isPresent()) {
+          LOG.warn(
+            "Remote query failed ({}); using cached results",
+            requireNonNullElse(e.getMessage(), e.getClass().getSimpleName())
+          );
+          return fallback.get();
+        }
         throw new NException(
           requireNonNullElse(e.getMessage(), e.getClass().getSimpleName()),
           e,
@@ -234,6 +446,176 @@ public final class NRuntimeInventories
       }
     }
 
+    private static String catalogKeyOf(
+      final Collection<NOperatingSystem> operatingSystems,
+      final Collection<NArchitecture> architectures,
+      final Collection<NRuntimeDistribution> distributions,
+      final int jdkVersion)
+      throws NException
+    {
+      final var text = new StringBuilder(128);
+      text.append("version=1;os=");
+      text.append(namesOf(operatingSystems, NOperatingSystem::name));
+      text.append(";arch=");
+      text.append(namesOf(architectures, NArchitecture::name));
+      text.append(";dist=");
+      text.append(namesOf(distributions, NRuntimeDistribution::name));
+      text.append(";jdk=");
+      text.append(jdkVersion);
+
+      try {
+        return keyOf(text.toString());
+      } catch (final NoSuchAlgorithmException e) {
+        throw new NException(e.getMessage(), e, errorIo());
+      }
+    }
+
+    private static <T> String namesOf(
+      final Collection<T> values,
+      final Function<T, String> name)
+    {
+      return values.stream()
+        .map(name)
+        .map(x -> x.toLowerCase(Locale.ROOT))
+        .sorted()
+        .distinct()
+        .collect(Collectors.joining(","));
+    }
+
+    private List<NRuntime> runtimesQueryRemotely(
+      final Collection<NOperatingSystem> operatingSystems,
+      final Collection<NArchitecture> architectures,
+      final Collection<NRuntimeDistribution> distributions,
+      final int jdkVersion)
+      throws Exception
+    {
+      final var discoDistributions =
+        this.distributions()
+          .stream()
+          .filter(d -> {
+            for (final var distribution : distributions) {
+              if (d.getName().equalsIgnoreCase(distribution.name())) {
+                return true;
+              }
+            }
+            return false;
+          })
+          .toList();
+
+      final var packages =
+        this.findRuntimesConcurrently(
+          remoteQueriesOf(operatingSystems, architectures),
+          jdkVersion,
+          discoDistributions
+        );
+
+      return packages.stream()
+        .map(pack -> {
+          try {
+            return this.pkgToRuntime(pack);
+          } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        })
+        .toList();
+    }
+
+    private static List<RemoteQuery> remoteQueriesOf(
+      final Collection<NOperatingSystem> operatingSystems,
+      final Collection<NArchitecture> architectures)
+    {
+      final var discoArches =
+        architectures.stream()
+          .map(a -> Architecture.fromText(a.name()))
+          .distinct()
+          .sorted()
+          .toList();
+
+      final var discoOperatingSystems =
+        operatingSystems.stream()
+          .map(a -> OperatingSystem.fromText(a.name()))
+          .distinct()
+          .sorted()
+          .toList();
+
+      final var queries = new ArrayList<RemoteQuery>();
+      for (final var os : discoOperatingSystems) {
+        for (final var arch : discoArches) {
+          for (final var archive : ARCHIVE_TYPES) {
+            queries.add(new RemoteQuery(os, arch, archive));
+          }
+        }
+      }
+      return List.copyOf(queries);
+    }
+
+    /**
+     * The list of distributions changes rarely, and is required by every
+     * query, so it is fetched once per inventory. An empty list is the
+     * answer of a remote API that is failing, so it is not kept, and the
+     * next query fetches the list again.
+     */
+
+    private List<Distribution> distributions()
+    {
+      this.distributionsLock.lock();
+      try {
+        if (this.distributionsCached == null) {
+          final var fetched =
+            List.copyOf(this.client.getDistributions());
+          if (fetched.isEmpty()) {
+            return fetched;
+          }
+          this.distributionsCached = fetched;
+        }
+        return this.distributionsCached;
+      } finally {
+        this.distributionsLock.unlock();
+      }
+    }
+
+    private List<Pkg> findRuntimesConcurrently(
+      final List<RemoteQuery> queries,
+      final int jdkVersion,
+      final List<Distribution> discoDistributions)
+      throws Exception
+    {
+      /*
+       * Each query is a separate round trip to the remote API, so the
+       * queries are issued concurrently. The results are collected in the
+       * order that the queries were constructed, so the merged results do
+       * not depend on the order in which the queries complete.
+       */
+
+      final var permits =
+        new Semaphore(this.configuration.remoteQueryParallelism());
+      final var packages = new ArrayList<Pkg>();
+
+      try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        final var results = new ArrayList<Future<List<Pkg>>>();
+        for (final var query : queries) {
+          results.add(executor.submit(() -> {
+            permits.acquire();
+            try {
+              return findRuntimes(
+                this.client,
+                query,
+                jdkVersion,
+                discoDistributions
+              );
+            } finally {
+              permits.release();
+            }
+          }));
+        }
+
+        for (final var result : results) {
+          packages.addAll(resultOf(result));
+        }
+      }
+      return packages;
+    }
+
     private NRuntime pkgToRuntime(
       final Pkg pack)
       throws IOException
@@ -244,13 +626,32 @@ public final class NRuntimeInventories
         new NOperatingSystem(pack.getOperatingSystem().name().toLowerCase()),
         new NArchitecture(pack.getArchitecture().name().toLowerCase()),
         pkgArchiveTypeToArchiveType(pack.getArchiveType()),
-        URI.create(this.client.getPkgDirectDownloadUri(pack.getId())),
+        this.downloadURIOf(pack.getId()),
         pack.getMajorVersion().getAsInt(),
         pack.getJavaVersion().toString(),
         pack.getSize()
       );
     }
 
+    /**
+     * The URI of a package's download. Rather than asking the API for the
+     * package's direct download URI, which would cost a request for every
+     * package found, the download is requested through the API's redirect
+     * endpoint, which resolves the direct download URI only when the
+     * runtime is actually downloaded.
+     */
+
+    private URI downloadURIOf(
+      final String id)
+    {
+      return this.baseURI.resolve(
+        "/disco/v%s/ids/%s/redirect".formatted(
+          Constants.API_VERSION_V3,
+          URLEncoder.encode(id, StandardCharsets.UTF_8)
+        )
+      );
+    }
+
     private static NRuntimeArchiveType pkgArchiveTypeToArchiveType(
       final ArchiveType archiveType)
       throws IOException
@@ -269,27 +670,8 @@ public final class NRuntimeInventories
       throws NException
     {
       try {
-        final List<Path> files;
-
-        Files.createDirectories(this.runtimes);
-
-        try (var stream = Files.list(this.runtimes)) {
-          files = stream.filter(p -> p.getFileName().toString().endsWith(".rti"))
-            .sorted()
-            .toList();
-        }
-
-        final var localRuntimes = new ArrayList<NRuntime>();
-        for (final var file : files) {
-          try {
-            localRuntimes.add(runtimeLoad(file));
-          } catch (final Exception e) {
-            Files.deleteIfExists(file);
-          }
-        }
-
-        return List.copyOf(localRuntimes);
-      } catch (final Exception e) {
+        return this.localIndex.list();
+      } catch (final IOException e) {
         throw new NException(
           requireNonNullElse(e.getMessage(), e.getClass().getSimpleName()),
           e,
@@ -308,21 +690,73 @@ public final class NRuntimeInventories
         RuntimePaths.create(this.runtimes, runtime);
 
       final var future = new CompletableFuture<Path>();
-      final var download = new Download(this.mainLock, runtime, future, paths);
-      final var thread = new Thread(download);
-      thread.setName("com.io7m.naranja.runtimes.download." + thread.getId());
-      thread.start();
-      return download;
+      final var candidate =
+        new NRuntimeDownload(
+          this.configuration,
+          this.httpClient,
+          this.downloadBuffers,
+          this.lockFor(runtime),
+          runtime,
+          future,
+          paths,
+          this.localIndex::add
+        );
+
+      /*
+       * A download of a runtime that is already being downloaded joins
+       * the existing download. The entry is removed when the download
+       * completes, so a later call checks the file again.
+       */
+
+      final var existing =
+        this.downloads.putIfAbsent(runtime.id(), candidate);
+      if (existing != null) {
+        LOG.debug("{}: joining download in progress", runtime.id());
+        return existing;
+      }
+
+      future.whenComplete((path, exception) -> {
+        this.downloads.remove(runtime.id(), candidate);
+      });
+
+      try {
+        this.downloadExecutor.execute(() -> this.runLimited(candidate));
+      } catch (final RejectedExecutionException e) {
+        candidate.fail(e);
+      }
+      return candidate;
+    }
+
+    private void runLimited(
+      final NRuntimeDownload download)
+    {
+      try {
+        this.downloadPermits.acquire();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        download.fail(e);
+        return;
+      }
+
+      try {
+        download.run();
+      } finally {
+        this.downloadPermits.release();
+      }
     }
 
     @Override
     public void runtimeUnpack(
       final NRuntime runtime,
-      final Path output)
+      final Path output,
+      final NRuntimeUnpackFilter filter,
+      final NFileHashListenerType hashes)
       throws NException
     {
       Objects.requireNonNull(runtime, "runtime");
       Objects.requireNonNull(output, "output");
+      Objects.requireNonNull(filter, "filter");
+      Objects.requireNonNull(hashes, "hashes");
 
       final var paths =
         RuntimePaths.create(this.runtimes, runtime);
@@ -330,23 +764,21 @@ public final class NRuntimeInventories
       try {
         Files.createDirectories(paths.rtFileTmp.getParent());
 
-        this.mainLock.lock();
+        final var runtimeLock = this.lockFor(runtime);
+        runtimeLock.lock();
         try {
           try (var file =
                  FileChannel.open(paths.rtFileTmp, CREATE, WRITE)) {
             try (var lock = file.lock()) {
-              switch (runtime.archiveType()) {
-                case RUNTIME_ARCHIVE_TAR_GZ ->
-                  runtimeUnpackTarGZ(paths.rtFile, output);
-                case RUNTIME_ARCHIVE_ZIP ->
-                  runtimeUnpackZip(paths.rtFile, output);
-              }
+              final var tree =
+                this.extractedTreeOf(runtime, paths, filter);
+              cachedTreeCopy(tree, output.toAbsolutePath(), hashes);
             }
           }
         } finally {
-          this.mainLock.unlock();
+          runtimeLock.unlock();
         }
-      } catch (final IOException e) {
+      } catch (final IOException | NoSuchAlgorithmException e) {
         throw new NException(
           requireNonNullElse(e.getMessage(), e.getClass().getSimpleName()),
           e,
@@ -355,313 +787,353 @@ public final class NRuntimeInventories
       }
     }
 
-    @Override
-    public void runtimeUnpackAndRelink(
+    /**
+     * The options that affect the contents of an extracted tree. Any change
+     * to the way that archives are extracted must change this string so that
+     * trees extracted by older versions are not reused.
+     */
+
+    private static final String EXTRACTION_OPTIONS =
+      "version=1;exclude=src.zip";
+
+    /**
+     * The options passed to {@code jlink}, other than the module path, the
+     * module set and the output directory.
+     */
+
+    private static final List<String> JLINK_OPTIONS =
+      List.of();
+
+    /**
+     * A directory tree held in the inventory, along with the hashes of each
+     * of the files in the tree keyed by their path relative to the tree.
+     */
+
+    private record CachedTree(
+      Path directory,
+      Properties hashes)
+    {
+
+    }
+
+    /**
+     * A function that writes a new tree into the given (nonexistent)
+     * directory, reporting the hash of each file written.
+     */
+
+    private interface CachedTreeWriterType
+    {
+      void write(
+        Path tree,
+        NFileHashListenerType hashes)
+        throws IOException, NoSuchAlgorithmException, NException;
+    }
+
+    /**
+     * Find the extracted tree for the given runtime, extracting the runtime
+     * archive if no tree exists yet. Trees are stored under the runtime's
+     * {@code .rtx} directory, keyed by the extraction options and filter.
+     */
+
+    private CachedTree extractedTreeOf(
       final NRuntime runtime,
-      final Path output,
+      final RuntimePaths paths,
+      final NRuntimeUnpackFilter filter)
+      throws IOException, NoSuchAlgorithmException, NException
+    {
+      var options = EXTRACTION_OPTIONS;
+      if (!filter.isEmpty()) {
+        options = "%s;includes=%s;excludes=%s".formatted(
+          options,
+          String.join("|", filter.includes()),
+          String.join("|", filter.excludes())
+        );
+      }
+
+      final var entry =
+        paths.rtxDirectory.resolve(keyOf(options));
+
+      return cachedTreeOf(entry, (tree, hashes) -> {
+        this.unpacker.unpack(
+          runtime.archiveType(),
+          paths.rtFile,
+          tree,
+          filter,
+          hashes
+        );
+      });
+    }
+
+    /**
+     * A function that produces a cached tree on demand.
+     */
+
+    private interface CachedTreeSupplierType
+    {
+      CachedTree get()
+        throws IOException, NoSuchAlgorithmException, NException;
+    }
+
+    /**
+     * Find the extracted tree that holds the {@code jmods} directory
+     * needed to link the given modules. Only the jmod files of the modules
+     * and the modules that they require are extracted, as {@code jlink}
+     * needs nothing else from the runtime.
+     */
+
+    private CachedTree jmodsTreeOf(
+      final NRuntime runtime,
+      final RuntimePaths paths,
       final Set<String> modules)
-      throws NException
+      throws IOException, NoSuchAlgorithmException, NException
     {
-      try {
-        final var temporaryDirectory =
-          Files.createTempDirectory("naranja");
+      final var includes =
+        this.unpacker.jmodRulesFor(
+          runtime.archiveType(),
+          paths.rtFile,
+          modules
+        );
+
+      return this.extractedTreeOf(
+        runtime,
+        paths,
+        new NRuntimeUnpackFilter(includes, List.of())
+      );
+    }
+
+    /**
+     * Find the linked image for the given runtime and module set, running
+     * {@code jlink} over the extracted jmod files if no image exists yet.
+     * The jmod files are only extracted if no image exists. Images are keyed
+     * by the module set, the {@code jlink} options, and the version of the
+     * {@code jlink} tool.
+     */
+
+    private static CachedTree linkedTreeOf(
+      final RuntimePaths paths,
+      final Set<String> modules,
+      final CachedTreeSupplierType jmods)
+      throws IOException, NoSuchAlgorithmException, NException
+    {
+      final var sortedModules =
+        String.join(",", new TreeSet<>(modules));
+
+      final var options =
+        "version=1;jlink=%s;modules=%s;options=%s".formatted(
+          Runtime.version(),
+          sortedModules,
+          String.join(" ", JLINK_OPTIONS)
+        );
 
-        this.runtimeUnpack(runtime, temporaryDirectory);
+      final var entry =
+        paths.rtxDirectory.resolve("jlink-" + keyOf(options));
 
+      return cachedTreeOf(entry, (tree, hashes) -> {
         final var jlink =
           ToolProvider.findFirst("jlink")
             .orElseThrow(() -> new NException(
               "No jlink tool is available.",
               errorIo()));
 
-        final var moduleDirectory =
-          temporaryDirectory.resolve("jmods")
-            .toAbsolutePath()
-            .toString();
-
-        final var outputDirectory =
-          output.toAbsolutePath()
-            .toString();
-
-        final var args =
-          new String[]{
-            "-p",
-            moduleDirectory,
-            "--add-modules",
-            String.join(",", modules),
-            "--output",
-            outputDirectory,
-          };
-
-        final var r = jlink.run(System.out, System.err, args);
+        final var extracted = jmods.get();
+        final var args = new ArrayList<String>();
+        args.add("-p");
+        args.add(extracted.directory().resolve("jmods").toString());
+        args.add("--add-modules");
+        args.add(sortedModules);
+        args.addAll(JLINK_OPTIONS);
+        args.add("--output");
+        args.add(tree.toString());
+
+        LOG.info("jlink {}", args);
+        final var r =
+          jlink.run(System.out, System.err, args.toArray(new String[0]));
         if (r != 0) {
           throw new NException("jlink tool failed", errorIo());
         }
 
-        try (var walk = Files.walk(temporaryDirectory)) {
-          walk.sorted(Comparator.reverseOrder())
-            .filter(Files::isRegularFile)
-            .forEach(file -> {
-              try {
-                Files.deleteIfExists(file);
-              } catch (final IOException e) {
-                LOG.error("delete: {}: ", file, e);
-              }
-            });
+        final List<Path> files;
+        try (var walk = Files.walk(tree)) {
+          files = walk.filter(Files::isRegularFile)
+            .sorted()
+            .toList();
         }
-
-        try (var walk = Files.walk(temporaryDirectory)) {
-          walk.sorted(Comparator.reverseOrder())
-            .filter(Files::isDirectory)
-            .forEach(file -> {
-              try {
-                Files.deleteIfExists(file);
-              } catch (final IOException e) {
-                LOG.error("delete: {}: ", file, e);
-              }
-            });
+        for (final var file : files) {
+          hashes.onFileHashed(file, NHashing.sha256Of(file));
         }
-
-      } catch (final IOException e) {
-        throw new NException(
-          requireNonNullElse(e.getMessage(), e.getClass().getSimpleName()),
-          e,
-          errorIo()
-        );
-      }
+      });
     }
 
-    private static void runtimeUnpackZip(
-      final Path rtFile,
-      final Path output)
-      throws IOException
+    /**
+     * Find the cached tree in the given entry directory, creating it with
+     * the given writer if it does not exist. A tree is written into a
+     * temporary directory and then moved into place, so a tree that exists
+     * is always complete.
+     */
+
+    private static CachedTree cachedTreeOf(
+      final Path entryPath,
+      final CachedTreeWriterType writer)
+      throws IOException, NoSuchAlgorithmException, NException
     {
-      Files.createDirectories(output);
-
-      try (var resources = CloseableCollection.create(() -> {
-        return new IOException("One or more resources failed to close.");
-      })) {
-        final var raw =
-          resources.add(Files.newInputStream(rtFile));
-        final var buffered =
-          resources.add(new BufferedInputStream(raw));
-        final var zip =
-          resources.add(new ZipInputStream(buffered));
-
-        while (true) {
-          final var entry = zip.getNextEntry();
-          if (entry == null) {
-            break;
-          }
-
-          final var fullPath =
-            List.of(entry.getName().split("/"));
-          final var withoutLeading =
-            fullPath.subList(1, fullPath.size());
-
-          var outputFile = output;
-          for (final var element : withoutLeading) {
-            outputFile = outputFile.resolve(element);
-          }
-          outputFile = outputFile.toAbsolutePath();
-          outputFile = outputFile.normalize();
-
-          if (outputFile.equals(output)) {
-            continue;
-          }
-
-          if (!outputFile.startsWith(output)) {
-            throw new IOException(
-              "Refusing to unpack entry %s to %s"
-                .formatted(entry.getName(), outputFile)
-            );
-          }
-
-          if (entry.isDirectory()) {
-            LOG.info("mkdir {}", outputFile);
-            Files.createDirectories(outputFile);
-            continue;
-          }
+      final var entry =
+        entryPath.toAbsolutePath();
+      final var hashFile =
+        entry.resolve("hashes.properties");
+      final var tree =
+        entry.resolve("tree");
+
+      if (Files.isRegularFile(hashFile)) {
+        LOG.info("reusing cached runtime {}", entry);
+        final var hashes = new Properties();
+        try (var stream = Files.newInputStream(hashFile)) {
+          hashes.load(stream);
+        }
+        return new CachedTree(tree, hashes);
+      }
 
-          LOG.info("mkdir {}", outputFile.getParent());
-          Files.createDirectories(outputFile.getParent());
+      final var entryTmp =
+        entry.resolveSibling(entry.getFileName() + ".tmp");
+      final var treeTmp =
+        entryTmp.resolve("tree");
 
-          /*
-           * There's no good reason to include src.zip in runtimes. It's often
-           * half the size of the entire runtime.
-           */
+      deleteRecursively(entry);
+      deleteRecursively(entryTmp);
+      Files.createDirectories(entryTmp);
 
-          if ("src.zip".equals(outputFile.getFileName().toString())) {
-            LOG.info("refusing to unpack {}", outputFile);
-            continue;
-          }
+      final var hashes = new Properties();
+      writer.write(treeTmp, (file, hash) -> {
+        hashes.setProperty(treeTmp.relativize(file).toString(), hash);
+      });
 
-          LOG.info("write {}", outputFile);
-          Files.deleteIfExists(outputFile);
-          try (var outputStream =
-                 Files.newOutputStream(
-                   outputFile,
-                   CREATE,
-                   WRITE,
-                   TRUNCATE_EXISTING)) {
-            zip.transferTo(outputStream);
-          }
-        }
+      try (var stream =
+             Files.newOutputStream(entryTmp.resolve("hashes.properties"))) {
+        hashes.store(stream, "");
       }
+
+      Files.move(entryTmp, entry, ATOMIC_MOVE);
+      return new CachedTree(tree, hashes);
     }
 
-    private static void runtimeUnpackTarGZ(
-      final Path rtFile,
-      final Path output)
-      throws IOException
+    private static String keyOf(
+      final String options)
+      throws NoSuchAlgorithmException
     {
-      Files.createDirectories(output);
-
-      try (var resources = CloseableCollection.create(() -> {
-        return new IOException("One or more resources failed to close.");
-      })) {
-        final var raw =
-          resources.add(Files.newInputStream(rtFile));
-        final var buffered =
-          resources.add(new BufferedInputStream(raw));
-        final var gzip =
-          resources.add(new GZIPInputStream(buffered));
-        final var tarStream =
-          resources.add(new TarArchiveInputStream(gzip));
-
-        while (true) {
-          final var entry = tarStream.getNextTarEntry();
-          if (entry == null) {
-            break;
-          }
-
-          final var fullPath =
-            List.of(entry.getName().split("/"));
-          final var withoutLeading =
-            fullPath.subList(1, fullPath.size());
+      final var digest =
+        MessageDigest.getInstance("SHA-256")
+          .digest(options.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of()
+        .formatHex(digest)
+        .substring(0, 16);
+    }
 
-          var outputFile = output;
-          for (final var element : withoutLeading) {
-            outputFile = outputFile.resolve(element);
-          }
-          outputFile = outputFile.toAbsolutePath();
-          outputFile = outputFile.normalize();
+    /**
+     * Populate the given output directory from a cached tree. Files are
+     * hardlinked into the output where possible, and copied otherwise.
+     */
 
-          if (outputFile.equals(output)) {
-            continue;
-          }
+    private static void cachedTreeCopy(
+      final CachedTree tree,
+      final Path output,
+      final NFileHashListenerType hashes)
+      throws IOException
+    {
+      final var source = tree.directory();
 
-          if (!outputFile.startsWith(output)) {
-            throw new IOException(
-              "Refusing to unpack entry %s to %s"
-                .formatted(entry.getName(), outputFile)
-            );
-          }
+      Files.createDirectories(output);
 
-          if (entry.isDirectory()) {
-            LOG.info("mkdir {}", outputFile);
-            Files.createDirectories(outputFile);
-            continue;
-          }
+      final List<Path> paths;
+      try (var walk = Files.walk(source)) {
+        paths = walk.sorted().toList();
+      }
 
-          LOG.info("mkdir {}", outputFile.getParent());
-          Files.createDirectories(outputFile.getParent());
+      for (final var sourcePath : paths) {
+        final var relative = source.relativize(sourcePath);
+        final var outputFile = output.resolve(relative.toString());
 
-          /*
-           * There's no good reason to include src.zip in runtimes. It's often
-           * half the size of the entire runtime.
-           */
+        if (Files.isDirectory(sourcePath)) {
+          Files.createDirectories(outputFile);
+          continue;
+        }
 
-          if ("src.zip".equals(outputFile.getFileName().toString())) {
-            LOG.info("refusing to unpack {}", outputFile);
-            continue;
-          }
+        LOG.info("write {}", outputFile);
+        Files.deleteIfExists(outputFile);
 
-          LOG.info("write {}", outputFile);
-          Files.deleteIfExists(outputFile);
-          try (var outputStream =
-                 Files.newOutputStream(
-                   outputFile,
-                   CREATE,
-                   WRITE,
-                   TRUNCATE_EXISTING)) {
-            tarStream.transferTo(outputStream);
-          }
+        try {
+          Files.createLink(outputFile, sourcePath);
+        } catch (final IOException | UnsupportedOperationException e) {
+          LOG.debug("link {}: {}", outputFile, e.toString());
+          Files.copy(sourcePath, outputFile, COPY_ATTRIBUTES);
+        }
 
-          setPermissions(outputFile, entry.getMode());
+        final var hash = tree.hashes().getProperty(relative.toString());
+        if (hash != null) {
+          hashes.onFileHashed(outputFile, hash);
         }
       }
     }
 
-    private static final int GROUP_EXEC = 0x08;
-    private static final int GROUP_READ = 0x20;
-    private static final int GROUP_WRITE = 0x10;
-    private static final int OTHER_EXEC = 0x01;
-    private static final int OTHER_READ = 0x04;
-    private static final int OTHER_WRITE = 0x02;
-    private static final int OWNER_EXEC = 0x40;
-    private static final int OWNER_READ = 0x100;
-    private static final int OWNER_WRITE = 0x80;
-
-    private static void setPermissions(
-      final Path outputFile,
-      final int mode)
+    private static void deleteRecursively(
+      final Path directory)
       throws IOException
     {
-      final var perms = new HashSet<PosixFilePermission>();
-      addPermissionsOwner(mode, perms);
-      addPermissionsGroup(mode, perms);
-      addPermissionsOther(mode, perms);
-
-      try {
-        Files.setPosixFilePermissions(outputFile, perms);
-      } catch (final UnsupportedOperationException e) {
-        // We are on a non-POSIX filesystem
+      if (!Files.exists(directory)) {
+        return;
       }
-    }
 
-    private static void addPermissionsOther(
-      final int mode,
-      final HashSet<PosixFilePermission> perms)
-    {
-      if ((mode & OTHER_EXEC) == OTHER_EXEC) {
-        perms.add(PosixFilePermission.OTHERS_EXECUTE);
-      }
-      if ((mode & OTHER_WRITE) == OTHER_WRITE) {
-        perms.add(PosixFilePermission.OTHERS_WRITE);
-      }
-      if ((mode & OTHER_READ) == OTHER_READ) {
-        perms.add(PosixFilePermission.OTHERS_READ);
+      try (var walk = Files.walk(directory)) {
+        final var paths =
+          walk.sorted(Comparator.reverseOrder())
+            .toList();
+        for (final var path : paths) {
+          Files.deleteIfExists(path);
+        }
       }
     }
 
-    private static void addPermissionsGroup(
-      final int mode,
-      final HashSet<PosixFilePermission> perms)
+    @Override
+    public void runtimeUnpackAndRelink(
+      final NRuntime runtime,
+      final Path output,
+      final Set<String> modules,
+      final NFileHashListenerType hashes)
+      throws NException
     {
-      if ((mode & GROUP_EXEC) == GROUP_EXEC) {
-        perms.add(PosixFilePermission.GROUP_EXECUTE);
-      }
-      if ((mode & GROUP_WRITE) == GROUP_WRITE) {
-        perms.add(PosixFilePermission.GROUP_WRITE);
-      }
-      if ((mode & GROUP_READ) == GROUP_READ) {
-        perms.add(PosixFilePermission.GROUP_READ);
-      }
-    }
+      Objects.requireNonNull(runtime, "runtime");
+      Objects.requireNonNull(output, "output");
+      Objects.requireNonNull(modules, "modules");
+      Objects.requireNonNull(hashes, "hashes");
 
-    private static void addPermissionsOwner(
-      final int mode,
-      final HashSet<PosixFilePermission> perms)
-    {
-      if ((mode & OWNER_EXEC) == OWNER_EXEC) {
-        perms.add(PosixFilePermission.OWNER_EXECUTE);
-      }
-      if ((mode & OWNER_WRITE) == OWNER_WRITE) {
-        perms.add(PosixFilePermission.OWNER_WRITE);
-      }
-      if ((mode & OWNER_READ) == OWNER_READ) {
-        perms.add(PosixFilePermission.OWNER_READ);
+      final var paths =
+        RuntimePaths.create(this.runtimes, runtime);
+
+      try {
+        Files.createDirectories(paths.rtFileTmp.getParent());
+
+        final var runtimeLock = this.lockFor(runtime);
+        runtimeLock.lock();
+        try {
+          try (var file =
+                 FileChannel.open(paths.rtFileTmp, CREATE, WRITE)) {
+            try (var lock = file.lock()) {
+              final var linked =
+                linkedTreeOf(
+                  paths,
+                  modules,
+                  () -> this.jmodsTreeOf(runtime, paths, modules)
+                );
+              cachedTreeCopy(linked, output.toAbsolutePath(), hashes);
+            }
+          }
+        } finally {
+          runtimeLock.unlock();
+        }
+      } catch (final IOException | NoSuchAlgorithmException e) {
+        throw new NException(
+          requireNonNullElse(e.getMessage(), e.getClass().getSimpleName()),
+          e,
+          errorIo()
+        );
       }
     }
 
@@ -678,7 +1150,8 @@ public final class NRuntimeInventories
       try {
         Files.createDirectories(paths.rtFileTmp.getParent());
 
-        this.mainLock.lock();
+        final var runtimeLock = this.lockFor(runtime);
+        runtimeLock.lock();
         try {
           try (var file =
                  FileChannel.open(paths.rtFileTmp, CREATE, WRITE)) {
@@ -686,10 +1159,12 @@ public final class NRuntimeInventories
               Files.deleteIfExists(paths.rtFileTmp);
               Files.deleteIfExists(paths.rtiFile);
               Files.deleteIfExists(paths.rtFile);
+              deleteRecursively(paths.rtxDirectory);
+              this.localIndex.remove(runtime.id());
             }
           }
         } finally {
-          this.mainLock.unlock();
+          runtimeLock.unlock();
         }
       } catch (final IOException e) {
         throw new NException(
@@ -704,7 +1179,10 @@ public final class NRuntimeInventories
     public void close()
       throws NException
     {
-
+      if (this.downloadExecutorOwned != null) {
+        this.downloadExecutorOwned.close();
+      }
+      this.httpClient.close();
     }
 
     @Override
@@ -715,16 +1193,10 @@ public final class NRuntimeInventories
       Objects.requireNonNull(id, "id");
 
       try {
-        final var locally =
-          this.runtimesAvailableLocally();
-
-        for (final var local : locally) {
-          if (Objects.equals(local.id(), id)) {
-            return local;
-          }
+        final var local = this.localIndex.find(id);
+        if (local.isPresent()) {
+          return local.get();
         }
-
-        return this.pkgToRuntime(this.client.getPkg(id));
       } catch (final IOException e) {
         throw new NException(
           requireNonNullElse(e.getMessage(), e.getClass().getSimpleName()),
@@ -732,193 +1204,74 @@ public final class NRuntimeInventories
           errorIo()
         );
       }
-    }
-
-    private static List<Pkg> findRuntimes(
-      final DiscoClient client,
-      final Architecture architecture,
-      final OperatingSystem operatingSystem,
-      final int version,
-      final Predicate<String> distribution)
-    {
-      final var distributions =
-        client.getDistributions()
-          .stream()
-          .filter(d -> distribution.test(d.getName()))
-          .toList();
-
-      final var packages = new ArrayList<Pkg>();
-      for (final var archive : List.of(ArchiveType.TAR_GZ, ArchiveType.ZIP)) {
-        packages.addAll(
-          client.getPkgs(
-            distributions,
-            VersionNumber.fromText(Integer.toString(version)),
-            Latest.OVERALL,
-            operatingSystem,
-            null,
-            architecture,
-            null,
-            archive,
-            PackageType.JDK,
-            false,
-            true,
-            List.of(ReleaseStatus.GA),
-            TermOfSupport.LTS,
-            null,
-            null
-          )
-        );
-      }
 
-      return packages;
+      return this.catalogOr(
+        () -> this.catalog.runtime(id, FRESH_ONLY),
+        () -> this.catalog.runtime(id, ANY),
+        () -> {
+          final var result = this.pkgToRuntime(this.client.getPkg(id));
+          this.catalog.runtimeStore(result);
+          return result;
+        }
+      );
     }
-  }
 
-  private static final class Download
-    implements NRuntimeDownloadType, Runnable
-  {
-    private final NRuntime runtime;
-    private final CompletableFuture<Path> future;
-    private final RuntimePaths paths;
-    private long sizeReceived;
-    private final ReentrantLock mainLock;
-
-    Download(
-      final ReentrantLock inMainLock,
-      final NRuntime inRuntime,
-      final CompletableFuture<Path> inFuture,
-      final RuntimePaths inPaths)
-    {
-      this.mainLock =
-        Objects.requireNonNull(inMainLock, "mainLock");
-      this.runtime =
-        Objects.requireNonNull(inRuntime, "runtime");
-      this.future =
-        Objects.requireNonNull(inFuture, "future");
-      this.paths =
-        Objects.requireNonNull(inPaths, "paths");
-    }
+    private static final List<ArchiveType> ARCHIVE_TYPES =
+      List.of(ArchiveType.TAR_GZ, ArchiveType.ZIP);
 
-    @Override
-    public long sizeExpected()
-    {
-      return this.runtime.size();
-    }
+    /**
+     * A single query against the remote API.
+     */
 
-    @Override
-    public long sizeReceived()
+    private record RemoteQuery(
+      OperatingSystem operatingSystem,
+      Architecture architecture,
+      ArchiveType archiveType)
     {
-      return this.sizeReceived;
-    }
 
-    @Override
-    public CompletableFuture<Path> future()
-    {
-      return this.future;
     }
 
-    @Override
-    public void run()
+    private static <T> T resultOf(
+      final Future<T> future)
+      throws Exception
     {
       try {
-        Files.createDirectories(this.paths.rtFileTmp.getParent());
-
-        this.mainLock.lock();
-        try {
-          try (var file =
-                 FileChannel.open(this.paths.rtFileTmp, CREATE, WRITE)) {
-            try (var lock = file.lock()) {
-              this.executeDownload(file);
-            }
-          }
-        } finally {
-          this.mainLock.unlock();
+        return future.get();
+      } catch (final ExecutionException e) {
+        if (e.getCause() instanceof final Exception cause) {
+          throw cause;
         }
-
-        this.future.complete(this.paths.rtFile);
-      } catch (final Throwable ex) {
-        this.future.completeExceptionally(ex);
+        throw e;
       }
     }
 
-    private void executeDownload(
-      final FileChannel file)
-      throws Exception
+    private static List<Pkg> findRuntimes(
+      final DiscoClient client,
+      final RemoteQuery query,
+      final int version,
+      final List<Distribution> distributions)
     {
-      if (!this.downloadIsRequired()) {
-        this.sizeReceived = this.runtime.size();
-        this.future.complete(this.paths.rtFile);
-        return;
-      }
-
-      file.truncate(0L);
-      file.position(0L);
-
-      final var client =
-        HttpClient.newBuilder()
-          .followRedirects(HttpClient.Redirect.NORMAL)
-          .build();
-
-      final var request =
-        HttpRequest.newBuilder(this.runtime.source())
-          .GET()
-          .build();
-
-      final var response =
-        client.send(request, HttpResponse.BodyHandlers.ofInputStream());
-
-      if (response.statusCode() >= 400) {
-        throw new IOException(
-          "%s: %s".formatted(
-            this.runtime.source(),
-            Integer.valueOf(response.statusCode())
-          ));
-      }
-
-      final var buffer = new byte[8192];
-      try (var stream = response.body()) {
-        while (true) {
-          final var r = stream.read(buffer);
-          if (r == -1) {
-            break;
-          }
-          this.sizeReceived += Integer.toUnsignedLong(r);
-          file.write(ByteBuffer.wrap(buffer, 0, r));
-        }
-      }
-
-      final var fileSize = Files.size(this.paths.rtFileTmp);
-      if (fileSize != this.runtime.size()) {
-        throw new IOException(
-          "Expected to receive %s octets, but received %s"
-            .formatted(
-              Long.toUnsignedString(this.sizeExpected()),
-              Long.toUnsignedString(fileSize))
-        );
-      }
-
-      Files.move(
-        this.paths.rtFileTmp,
-        this.paths.rtFile,
-        REPLACE_EXISTING,
-        ATOMIC_MOVE
+      return client.getPkgs(
+        distributions,
+        VersionNumber.fromText(Integer.toString(version)),
+        Latest.OVERALL,
+        query.operatingSystem(),
+        null,
+        query.architecture(),
+        null,
+        query.archiveType(),
+        PackageType.JDK,
+        false,
+        true,
+        List.of(ReleaseStatus.GA),
+        TermOfSupport.LTS,
+        null,
+        null
       );
-
-      runtimeWrite(this.runtime, this.paths.rtiFile);
-    }
-
-    private boolean downloadIsRequired()
-    {
-      try {
-        final var fileSize = Files.size(this.paths.rtFile);
-        return (fileSize != this.runtime.size());
-      } catch (final IOException e) {
-        return true;
-      }
     }
   }
 
-  private static NRuntime runtimeLoad(
+  static NRuntime runtimeLoad(
     final Path file)
     throws Exception
   {
@@ -940,7 +1293,7 @@ public final class NRuntimeInventories
     );
   }
 
-  private static void runtimeWrite(
+  static void runtimeWrite(
     final NRuntime runtime,
     final Path file)
     throws Exception
@@ -0,0 +1,508 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.runtimes;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+/**
+ * The configuration for an inventory.
+ *
+ * @param downloadSegments           The maximum number of byte ranges of a
+ *                                   runtime that will be downloaded
+ *                                   concurrently; {@code 1} downloads a
+ *                                   runtime as a single stream
+ * @param downloadSegmentSizeMinimum The minimum size in octets of a
+ *                                   downloaded byte range
+ * @param httpVersion                The preferred HTTP version
+ * @param httpConnectTimeout         The timeout for establishing a
+ *                                   connection
+ * @param httpRequestTimeout         The timeout for receiving the headers
+ *                                   of a response
+ * @param httpExecutor               The executor used by the HTTP client,
+ *                                   if the client's own executor should not
+ *                                   be used
+ * @param downloadExecutor           The executor on which downloads run, if
+ *                                   the inventory should not create its own
+ *                                   virtual thread executor
+ * @param downloadConcurrency        The maximum number of runtimes that
+ *                                   will be downloaded concurrently
+ * @param catalogTimeToLive          The age after which cached results of
+ *                                   remote queries are queried again
+ * @param offline                    {@code true} if remote queries should
+ *                                   be answered from the cache only
+ * @param remoteQueryParallelism     The maximum number of requests made to
+ *                                   the remote API concurrently
+ * @param downloadBufferSize         The size in octets of the buffers in
+ *                                   which downloaded data is gathered
+ *                                   before it is written to disk
+ * @param unpackParallelism          The maximum number of archive entries
+ *                                   that will be extracted concurrently
+ */
+
+public record NRuntimeInventoryConfiguration(
+  int downloadSegments,
+  long downloadSegmentSizeMinimum,
+  HttpClient.Version httpVersion,
+  Duration httpConnectTimeout,
+  Duration httpRequestTimeout,
+  Optional<Executor> httpExecutor,
+  Optional<Executor> downloadExecutor,
+  int downloadConcurrency,
+  Duration catalogTimeToLive,
+  boolean offline,
+  int remoteQueryParallelism,
+  int downloadBufferSize,
+  int unpackParallelism)
+{
+  /**
+   * The default minimum size of a downloaded byte range (8MiB).
+   */
+
+  public static final long DEFAULT_DOWNLOAD_SEGMENT_SIZE_MINIMUM =
+    8L * 1024L * 1024L;
+
+  /**
+   * The default maximum number of runtimes downloaded concurrently.
+   */
+
+  public static final int DEFAULT_DOWNLOAD_CONCURRENCY = 4;
+
+  /**
+   * The default age after which cached results of remote queries are
+   * queried again.
+   */
+
+  public static final Duration DEFAULT_CATALOG_TIME_TO_LIVE =
+    Duration.ofHours(24L);
+
+  /**
+   * The default maximum number of requests made to the remote API
+   * concurrently.
+   */
+
+  public static final int DEFAULT_REMOTE_QUERY_PARALLELISM = 8;
+
+  /**
+   * The default size of the buffers in which downloaded data is gathered
+   * before it is written to disk (1MiB).
+   */
+
+  public static final int DEFAULT_DOWNLOAD_BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * The default timeout for establishing a connection.
+   */
+
+  public static final Duration DEFAULT_HTTP_CONNECT_TIMEOUT =
+    Duration.ofSeconds(30L);
+
+  /**
+   * The default timeout for receiving the headers of a response.
+   */
+
+  public static final Duration DEFAULT_HTTP_REQUEST_TIMEOUT =
+    Duration.ofSeconds(60L);
+
+  /**
+   * The configuration for an inventory.
+   *
+   * @param downloadSegments           The maximum number of byte ranges of a
+   *                                   runtime that will be downloaded
+   *                                   concurrently; {@code 1} downloads a
+   *                                   runtime as a single stream
+   * @param downloadSegmentSizeMinimum The minimum size in octets of a
+   *                                   downloaded byte range
+   * @param httpVersion                The preferred HTTP version
+   * @param httpConnectTimeout         The timeout for establishing a
+   *                                   connection
+   * @param httpRequestTimeout         The timeout for receiving the headers
+   *                                   of a response
+   * @param httpExecutor               The executor used by the HTTP client,
+   *                                   if the client's own executor should
+   *                                   not be used
+   * @param downloadExecutor           The executor on which downloads run,
+   *                                   if the inventory should not create its
+   *                                   own virtual thread executor
+   * @param downloadConcurrency        The maximum number of runtimes that
+   *                                   will be downloaded concurrently
+   * @param catalogTimeToLive          The age after which cached results of
+   *                                   remote queries are queried again
+   * @param offline                    {@code true} if remote queries should
+   *                                   be answered from the cache only
+   * @param remoteQueryParallelism     The maximum number of requests made to
+   *                                   the remote API concurrently
+   * @param downloadBufferSize         The size in octets of the buffers in
+   *                                   which downloaded data is gathered
+   *                                   before it is written to disk
+   * @param unpackParallelism          The maximum number of archive entries
+   *                                   that will be extracted concurrently
+   */
+
+  public NRuntimeInventoryConfiguration
+  {
+    Objects.requireNonNull(httpVersion, "httpVersion");
+    Objects.requireNonNull(httpConnectTimeout, "httpConnectTimeout");
+    Objects.requireNonNull(httpRequestTimeout, "httpRequestTimeout");
+    Objects.requireNonNull(httpExecutor, "httpExecutor");
+    Objects.requireNonNull(downloadExecutor, "downloadExecutor");
+    Objects.requireNonNull(catalogTimeToLive, "catalogTimeToLive");
+
+    if (downloadSegments < 1) {
+      throw new IllegalArgumentException(
+        "Download segments must be >= 1 (received %d)"
+          .formatted(Integer.valueOf(downloadSegments))
+      );
+    }
+
+    if (downloadSegmentSizeMinimum < 1L) {
+      throw new IllegalArgumentException(
+        "Download segment size minimum must be >= 1 (received %d)"
+          .formatted(Long.valueOf(downloadSegmentSizeMinimum))
+      );
+    }
+
+    if (downloadConcurrency < 1) {
+      throw new IllegalArgumentException(
+        "Download concurrency must be >= 1 (received %d)"
+          .formatted(Integer.valueOf(downloadConcurrency))
+      );
+    }
+
+    checkPositive(httpConnectTimeout, "Connect timeout");
+    checkPositive(httpRequestTimeout, "Request timeout");
+
+    if (remoteQueryParallelism < 1) {
+      throw new IllegalArgumentException(
+        "Remote query parallelism must be >= 1 (received %d)"
+          .formatted(Integer.valueOf(remoteQueryParallelism))
+      );
+    }
+
+    if (downloadBufferSize < 1) {
+      throw new IllegalArgumentException(
+        "Download buffer size must be >= 1 (received %d)"
+          .formatted(Integer.valueOf(downloadBufferSize))
+      );
+    }
+
+    if (unpackParallelism < 1) {
+      throw new IllegalArgumentException(
+        "Unpack parallelism must be >= 1 (received %d)"
+          .formatted(Integer.valueOf(unpackParallelism))
+      );
+    }
+
+    if (catalogTimeToLive.isNegative()) {
+      throw new IllegalArgumentException(
+        "Catalog time-to-live must be non-negative (received %s)"
+          .formatted(catalogTimeToLive)
+      );
+    }
+  }
+
+  private static void checkPositive(
+    final Duration duration,
+    final String name)
+  {
+    if (duration.isNegative() || duration.isZero()) {
+      throw new IllegalArgumentException(
+        "%s must be positive (received %s)".formatted(name, duration)
+      );
+    }
+  }
+
+  /**
+   * @return The default configuration, which downloads runtimes as single
+   * streams over HTTP/2 where the server supports it, on virtual threads,
+   * and extracts archives on as many threads as there are processors
+   */
+
+  public static NRuntimeInventoryConfiguration defaults()
+  {
+    return new NRuntimeInventoryConfiguration(
+      1,
+      DEFAULT_DOWNLOAD_SEGMENT_SIZE_MINIMUM,
+      HttpClient.Version.HTTP_2,
+      DEFAULT_HTTP_CONNECT_TIMEOUT,
+      DEFAULT_HTTP_REQUEST_TIMEOUT,
+      Optional.empty(),
+      Optional.empty(),
+      DEFAULT_DOWNLOAD_CONCURRENCY,
+      DEFAULT_CATALOG_TIME_TO_LIVE,
+      false,
+      DEFAULT_REMOTE_QUERY_PARALLELISM,
+      DEFAULT_DOWNLOAD_BUFFER_SIZE,
+      Math.max(1, Runtime.getRuntime().availableProcessors())
+    );
+  }
+
+  /**
+   * @param segments The maximum number of concurrently downloaded byte ranges
+   *
+   * @return This configuration with the given number of download segments
+   */
+
+  public NRuntimeInventoryConfiguration withDownloadSegments(
+    final int segments)
+  {
+    final var builder = new Builder(this);
+    builder.downloadSegments = segments;
+    return builder.build();
+  }
+
+  /**
+   * @param size The minimum size in octets of a downloaded byte range
+   *
+   * @return This configuration with the given minimum segment size
+   */
+
+  public NRuntimeInventoryConfiguration withDownloadSegmentSizeMinimum(
+    final long size)
+  {
+    final var builder = new Builder(this);
+    builder.downloadSegmentSizeMinimum = size;
+    return builder.build();
+  }
+
+  /**
+   * @param version The preferred HTTP version
+   *
+   * @return This configuration with the given HTTP version
+   */
+
+  public NRuntimeInventoryConfiguration withHttpVersion(
+    final HttpClient.Version version)
+  {
+    final var builder = new Builder(this);
+    builder.httpVersion = version;
+    return builder.build();
+  }
+
+  /**
+   * @param connectTimeout The timeout for establishing a connection
+   * @param requestTimeout The timeout for receiving the headers of a response
+   *
+   * @return This configuration with the given HTTP timeouts
+   */
+
+  public NRuntimeInventoryConfiguration withHttpTimeouts(
+    final Duration connectTimeout,
+    final Duration requestTimeout)
+  {
+    final var builder = new Builder(this);
+    builder.httpConnectTimeout = connectTimeout;
+    builder.httpRequestTimeout = requestTimeout;
+    return builder.build();
+  }
+
+  /**
+   * @param executor The executor used by the HTTP client
+   *
+   * @return This configuration with the given HTTP executor
+   */
+
+  public NRuntimeInventoryConfiguration withHttpExecutor(
+    final Executor executor)
+  {
+    final var builder = new Builder(this);
+    builder.httpExecutor = Optional.of(executor);
+    return builder.build();
+  }
+
+  /**
+   * @param executor The executor on which downloads run
+   *
+   * @return This configuration with the given download executor
+   */
+
+  public NRuntimeInventoryConfiguration withDownloadExecutor(
+    final Executor executor)
+  {
+    final var builder = new Builder(this);
+    builder.downloadExecutor = Optional.of(executor);
+    return builder.build();
+  }
+
+  /**
+   * @param concurrency The maximum number of runtimes downloaded concurrently
+   *
+   * @return This configuration with the given download concurrency
+   */
+
+  public NRuntimeInventoryConfiguration withDownloadConcurrency(
+    final int concurrency)
+  {
+    final var builder = new Builder(this);
+    builder.downloadConcurrency = concurrency;
+    return builder.build();
+  }
+
+  /**
+   * @param ttl The age after which cached results of remote queries are
+   *            queried again
+   *
+   * @return This configuration with the given catalog time-to-live
+   */
+
+  public NRuntimeInventoryConfiguration withCatalogTimeToLive(
+    final Duration ttl)
+  {
+    final var builder = new Builder(this);
+    builder.catalogTimeToLive = ttl;
+    return builder.build();
+  }
+
+  /**
+   * @param isOffline {@code true} if remote queries should be answered from
+   *                  the cache only
+   *
+   * @return This configuration with the given offline mode
+   */
+
+  public NRuntimeInventoryConfiguration withOffline(
+    final boolean isOffline)
+  {
+    final var builder = new Builder(this);
+    builder.offline = isOffline;
+    return builder.build();
+  }
+
+  /**
+   * @param parallelism The maximum number of requests made to the remote
+   *                    API concurrently
+   *
+   * @return This configuration with the given remote query parallelism
+   */
+
+  public NRuntimeInventoryConfiguration withRemoteQueryParallelism(
+    final int parallelism)
+  {
+    final var builder = new Builder(this);
+    builder.remoteQueryParallelism = parallelism;
+    return builder.build();
+  }
+
+  /**
+   * @param size The size in octets of the buffers in which downloaded data
+   *             is gathered before it is written to disk
+   *
+   * @return This configuration with the given download buffer size
+   */
+
+  public NRuntimeInventoryConfiguration withDownloadBufferSize(
+    final int size)
+  {
+    final var builder = new Builder(this);
+    builder.downloadBufferSize = size;
+    return builder.build();
+  }
+
+  /**
+   * @param parallelism The maximum number of archive entries extracted
+   *                    concurrently
+   *
+   * @return This configuration with the given unpack parallelism
+   */
+
+  public NRuntimeInventoryConfiguration withUnpackParallelism(
+    final int parallelism)
+  {
+    final var builder = new Builder(this);
+    builder.unpackParallelism = parallelism;
+    return builder.build();
+  }
+
+  /**
+   * @param size The size in octets of a runtime
+   *
+   * @return The number of byte ranges into which a runtime of the given size
+   * will be divided
+   */
+
+  public int downloadSegmentsFor(
+    final long size)
+  {
+    final var bySize =
+      Math.max(1L, size / this.downloadSegmentSizeMinimum);
+    return (int) Math.min((long) this.downloadSegments, bySize);
+  }
+
+  /**
+   * A mutable copy of a configuration, used by the {@code with} methods so
+   * that each of them only names the components that it changes.
+   */
+
+  private static final class Builder
+  {
+    private int downloadSegments;
+    private long downloadSegmentSizeMinimum;
+    private HttpClient.Version httpVersion;
+    private Duration httpConnectTimeout;
+    private Duration httpRequestTimeout;
+    private Optional<Executor> httpExecutor;
+    private Optional<Executor> downloadExecutor;
+    private int downloadConcurrency;
+    private Duration catalogTimeToLive;
+    private boolean offline;
+    private int remoteQueryParallelism;
+    private int downloadBufferSize;
+    private int unpackParallelism;
+
+    Builder(
+      final NRuntimeInventoryConfiguration configuration)
+    {
+      this.downloadSegments = configuration.downloadSegments();
+      this.downloadSegmentSizeMinimum =
+        configuration.downloadSegmentSizeMinimum();
+      this.httpVersion = configuration.httpVersion();
+      this.httpConnectTimeout = configuration.httpConnectTimeout();
+      this.httpRequestTimeout = configuration.httpRequestTimeout();
+      this.httpExecutor = configuration.httpExecutor();
+      this.downloadExecutor = configuration.downloadExecutor();
+      this.downloadConcurrency = configuration.downloadConcurrency();
+      this.catalogTimeToLive = configuration.catalogTimeToLive();
+      this.offline = configuration.offline();
+      this.remoteQueryParallelism = configuration.remoteQueryParallelism();
+      this.downloadBufferSize = configuration.downloadBufferSize();
+      this.unpackParallelism = configuration.unpackParallelism();
+    }
+
+    NRuntimeInventoryConfiguration build()
+    {
+      return new NRuntimeInventoryConfiguration(
+        this.downloadSegments,
+        this.downloadSegmentSizeMinimum,
+        this.httpVersion,
+        this.httpConnectTimeout,
+        this.httpRequestTimeout,
+        this.httpExecutor,
+        this.downloadExecutor,
+        this.downloadConcurrency,
+        this.catalogTimeToLive,
+        this.offline,
+        this.remoteQueryParallelism,
+        this.downloadBufferSize,
+        this.unpackParallelism
+      );
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.runtimes;
+
+import com.io7m.naranja.core.NException;
+import com.io7m.naranja.core.NRuntime;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.io7m.naranja.core.NErrorCodes.errorRuntimeIdInvalid;
+
+/**
+ * An in-memory index of the runtimes in the inventory's directory.
+ *
+ * <p>The directory is scanned at most once, the first time that the full
+ * list of runtimes is requested. Lookups by id consult the index and, on a
+ * miss, read the runtime's {@code .rti} file directly, so runtimes
+ * downloaded by other processes sharing the directory are still found
+ * without a scan.</p>
+ */
+
+final class NRuntimeLocalIndex
+{
+  private final Path directory;
+  private final ConcurrentHashMap<String, NRuntime> runtimes;
+  private final ReentrantLock scanLock;
+  private volatile boolean scanned;
+
+  NRuntimeLocalIndex(
+    final Path inDirectory)
+  {
+    this.directory =
+      Objects.requireNonNull(inDirectory, "directory");
+    this.runtimes =
+      new ConcurrentHashMap<>();
+    this.scanLock =
+      new ReentrantLock();
+  }
+
+  /**
+   * @return All runtimes in the index, in id order
+   *
+   * @throws IOException On errors
+   */
+
+  List<NRuntime> list()
+    throws IOException
+  {
+    this.scan();
+    return this.runtimes.values()
+      .stream()
+      .sorted(Comparator.comparing(NRuntime::id))
+      .toList();
+  }
+
+  /**
+   * Find the runtime with the given id.
+   *
+   * @param id The runtime id
+   *
+   * @return The runtime, if it is present
+   *
+   * @throws IOException On errors
+   * @throws NException  If the id is not a valid runtime id
+   */
+
+  Optional<NRuntime> find(
+    final String id)
+    throws IOException, NException
+  {
+    final var existing = this.runtimes.get(id);
+    if (existing != null) {
+      return Optional.of(existing);
+    }
+
+    final var loaded = load(fileOf(this.directory, id, ".rti"));
+    loaded.ifPresent(this::add);
+    return loaded;
+  }
+
+  /**
+   * Add a runtime to the index.
+   *
+   * @param runtime The runtime
+   */
+
+  void add(
+    final NRuntime runtime)
+  {
+    this.runtimes.put(runtime.id(), runtime);
+  }
+
+  /**
+   * Remove a runtime from the index.
+   *
+   * @param id The runtime id
+   */
+
+  void remove(
+    final String id)
+  {
+    this.runtimes.remove(id);
+  }
+
+  /**
+   * Determine the file that holds the runtime with the given id. Ids are
+   * checked so that an id supplied by a user cannot name a file outside
+   * of the directory.
+   *
+   * @param directory The directory
+   * @param id        The runtime id
+   * @param suffix    The file suffix
+   *
+   * @return The file
+   *
+   * @throws NException If the id is not a valid runtime id
+   */
+
+  static Path fileOf(
+    final Path directory,
+    final String id,
+    final String suffix)
+    throws NException
+  {
+    if (!NRuntime.isValidId(id)) {
+      throw new NException(
+        "Invalid runtime identifier: %s".formatted(id),
+        errorRuntimeIdInvalid()
+      );
+    }
+    return directory.resolve(id + suffix);
+  }
+
+  private void scan()
+    throws IOException
+  {
+    if (this.scanned) {
+      return;
+    }
+
+    this.scanLock.lock();
+    try {
+      if (this.scanned) {
+        return;
+      }
+
+      Files.createDirectories(this.directory);
+
+      final List<Path> files;
+      try (var stream = Files.list(this.directory)) {
+        files = stream.filter(p -> p.getFileName().toString().endsWith(".rti"))
+          .toList();
+      }
+
+      for (final var file : files) {
+        load(file).ifPresent(this::add);
+      }
+      this.scanned = true;
+    } finally {
+      this.scanLock.unlock();
+    }
+  }
+
+  /**
+   * Load a runtime from the given file. Files that cannot be parsed are
+   * deleted.
+   */
+
+  private static Optional<NRuntime> load(
+    final Path file)
+    throws IOException
+  {
+    if (!Files.isRegularFile(file)) {
+      return Optional.empty();
+    }
+
+    try {
+      return Optional.of(NRuntimeInventories.runtimeLoad(file));
+    } catch (final Exception e) {
+      Files.deleteIfExists(file);
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,760 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.naranja.runtimes;
+
+import com.io7m.jmulticlose.core.CloseableCollection;
+import com.io7m.naranja.core.NFileHashListenerType;
+import com.io7m.naranja.core.NHashing;
+import com.io7m.naranja.core.NRuntimeArchiveType;
+import com.io7m.naranja.core.NRuntimeUnpackFilter;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.InvalidModuleDescriptorException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleDescriptor.Requires;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The extraction of runtime archives into directories.
+ *
+ * <p>The first path element of each entry is removed, entries that would
+ * be written outside the output directory are rejected, and
+ * {@code src.zip} is never extracted. Other entries are extracted if the
+ * unpack filter accepts their path relative to the output directory.</p>
+ */
+
+final class NRuntimeUnpacker
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(NRuntimeUnpacker.class);
+
+  private final int parallelism;
+
+  NRuntimeUnpacker(
+    final int inParallelism)
+  {
+    if (inParallelism < 1) {
+      throw new IllegalArgumentException(
+        "Parallelism must be >= 1 (received %d)"
+          .formatted(Integer.valueOf(inParallelism))
+      );
+    }
+    this.parallelism = inParallelism;
+  }
+
+  /**
+   * Extract the given archive into the given output directory.
+   *
+   * @param archiveType The type of the archive
+   * @param rtFile      The archive
+   * @param output      The output directory
+   * @param filter      The filter that selects the files to extract
+   * @param hashes      A receiver of the hashes of extracted files
+   *
+   * @throws IOException              On errors
+   * @throws NoSuchAlgorithmException If SHA-256 is unavailable
+   */
+
+  void unpack(
+    final NRuntimeArchiveType archiveType,
+    final Path rtFile,
+    final Path output,
+    final NRuntimeUnpackFilter filter,
+    final NFileHashListenerType hashes)
+    throws IOException, NoSuchAlgorithmException
+  {
+    final var selection = new Selection(output, filter.matcher());
+    switch (archiveType) {
+      case RUNTIME_ARCHIVE_TAR_GZ ->
+        this.unpackTarGZ(rtFile, selection, hashes);
+      case RUNTIME_ARCHIVE_ZIP ->
+        this.unpackZip(rtFile, selection, hashes);
+    }
+  }
+
+  /**
+   * The output directory, and the files within it that will be extracted.
+   */
+
+  private record Selection(
+    Path output,
+    Predicate<Path> filter)
+  {
+    /**
+     * Determine the file to which the named entry should be extracted,
+     * creating the directory if the entry is an accepted directory.
+     *
+     * @return The output file, or nothing if the entry is a directory or
+     * is not extracted
+     */
+
+    Optional<Path> fileFor(
+      final String name,
+      final boolean isDirectory)
+      throws IOException
+    {
+      final var outputFileOpt = outputFileOf(this.output, name);
+      if (outputFileOpt.isEmpty()) {
+        return Optional.empty();
+      }
+
+      final var outputFile = outputFileOpt.get();
+      if (isDirectory) {
+        if (this.accepts(outputFile)) {
+          LOG.info("mkdir {}", outputFile);
+          Files.createDirectories(outputFile);
+        }
+        return Optional.empty();
+      }
+
+      if (this.isExcluded(outputFile)) {
+        return Optional.empty();
+      }
+      return Optional.of(outputFile);
+    }
+
+    /**
+     * There's no good reason to include src.zip in runtimes. It's often
+     * half the size of the entire runtime.
+     */
+
+    boolean isExcluded(
+      final Path outputFile)
+    {
+      if ("src.zip".equals(outputFile.getFileName().toString())) {
+        LOG.info("refusing to unpack {}", outputFile);
+        return true;
+      }
+      if (!this.accepts(outputFile)) {
+        LOG.debug("filtered {}", outputFile);
+        return true;
+      }
+      return false;
+    }
+
+    boolean accepts(
+      final Path outputFile)
+    {
+      return this.filter.test(this.output.relativize(outputFile));
+    }
+  }
+
+  /**
+   * Determine the include rules that select the jmod files needed to link
+   * the given modules: the jmod files of the modules themselves, and of
+   * every module that they require, transitively. The module descriptors
+   * are read from the jmod files inside a zip archive without extracting
+   * anything. A tar.gz archive can only be read sequentially, so rather
+   * than read it once per level of the module graph, every jmod file is
+   * selected and {@code jlink} selects the modules it needs.
+   *
+   * @param archiveType The type of the archive
+   * @param rtFile      The archive
+   * @param modules     The modules that will be linked
+   *
+   * @return The include rules
+   *
+   * @throws IOException On errors
+   */
+
+  List<String> jmodRulesFor(
+    final NRuntimeArchiveType archiveType,
+    final Path rtFile,
+    final Set<String> modules)
+    throws IOException
+  {
+    return switch (archiveType) {
+      case RUNTIME_ARCHIVE_TAR_GZ -> List.of("jmods/*.jmod");
+      case RUNTIME_ARCHIVE_ZIP -> jmodRulesForZip(rtFile, modules);
+    };
+  }
+
+  private static List<String> jmodRulesForZip(
+    final Path rtFile,
+    final Set<String> modules)
+    throws IOException
+  {
+    try (var channel = FileChannel.open(rtFile, READ);
+         var zip = new ZipFile(channel)) {
+
+      final var jmods = new HashMap<String, ZipArchiveEntry>();
+      for (final var entry : Collections.list(zip.getEntries())) {
+        final var name = entry.getName();
+        final var relative = name.substring(name.indexOf('/') + 1);
+        if (relative.startsWith("jmods/")
+            && relative.endsWith(".jmod")
+            && relative.indexOf('/', 6) == -1) {
+          jmods.put(relative.substring(6, relative.length() - 5), entry);
+        }
+      }
+
+      final var required = new TreeSet<String>();
+      final var pending = new ArrayDeque<>(modules);
+      while (!pending.isEmpty()) {
+        final var module = pending.pop();
+        if (!required.add(module)) {
+          continue;
+        }
+
+        /*
+         * A module with no jmod file is left for jlink to report.
+         */
+
+        final var entry = jmods.get(module);
+        if (entry == null) {
+          continue;
+        }
+
+        try (var stream = zip.getInputStream(entry)) {
+          for (final var requires : jmodDescriptorOf(module, stream)
+            .requires()) {
+            if (!requires.modifiers().contains(Requires.Modifier.STATIC)) {
+              pending.push(requires.name());
+            }
+          }
+        }
+      }
+
+      return required.stream()
+        .map("jmods/%s.jmod"::formatted)
+        .toList();
+    }
+  }
+
+  /**
+   * Read the module descriptor from a jmod file. A jmod file is a zip
+   * archive preceded by a four octet header, with the module descriptor
+   * in {@code classes/module-info.class}.
+   */
+
+  private static ModuleDescriptor jmodDescriptorOf(
+    final String module,
+    final InputStream stream)
+    throws IOException
+  {
+    final var header = stream.readNBytes(4);
+    if (header.length != 4 || header[0] != 'J' || header[1] != 'M') {
+      throw new IOException(
+        "The jmod file for module %s is not a jmod file".formatted(module)
+      );
+    }
+
+    final var jmod = new ZipInputStream(stream);
+    while (true) {
+      final var entry = jmod.getNextEntry();
+      if (entry == null) {
+        throw new IOException(
+          "The jmod file for module %s has no module descriptor"
+            .formatted(module)
+        );
+      }
+      if ("classes/module-info.class".equals(entry.getName())) {
+        try {
+          return ModuleDescriptor.read(jmod);
+        } catch (final InvalidModuleDescriptorException e) {
+          throw new IOException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Determine the file to which the named entry should be extracted.
+   *
+   * @return The output file, or nothing if the entry names the output
+   * directory itself
+   *
+   * @throws IOException If the entry would be extracted outside the output
+   *                     directory
+   */
+
+  private static Optional<Path> outputFileOf(
+    final Path output,
+    final String name)
+    throws IOException
+  {
+    final var fullPath =
+      List.of(name.split("/"));
+    final var withoutLeading =
+      fullPath.subList(1, fullPath.size());
+
+    var outputFile = output;
+    for (final var element : withoutLeading) {
+      outputFile = outputFile.resolve(element);
+    }
+    outputFile = outputFile.toAbsolutePath();
+    outputFile = outputFile.normalize();
+
+    if (outputFile.equals(output)) {
+      return Optional.empty();
+    }
+
+    if (!outputFile.startsWith(output)) {
+      throw new IOException(
+        "Refusing to unpack entry %s to %s"
+          .formatted(name, outputFile)
+      );
+    }
+    return Optional.of(outputFile);
+  }
+
+  /**
+   * Extract a zip archive. The archive is opened for random access, so the
+   * central directory is read once and the entries are then inflated
+   * independently on a bounded pool of threads. Directories are created
+   * before any files are written, and the hashes of the files are reported
+   * in the order that the files appear in the archive.
+   */
+
+  private void unpackZip(
+    final Path rtFile,
+    final Selection selection,
+    final NFileHashListenerType hashes)
+    throws IOException, NoSuchAlgorithmException
+  {
+    final var output = selection.output();
+    Files.createDirectories(output);
+
+    try (var channel = FileChannel.open(rtFile, READ);
+         var zip = new ZipFile(channel)) {
+
+      /*
+       * A later entry with the same name replaces an earlier one, as it
+       * would if the entries were extracted in order.
+       */
+
+      final var entries =
+        Collections.list(zip.getEntriesInPhysicalOrder());
+      final var files =
+        new LinkedHashMap<Path, ZipArchiveEntry>();
+
+      for (final var entry : entries) {
+        final var outputFileOpt =
+          selection.fileFor(entry.getName(), entry.isDirectory());
+        if (outputFileOpt.isEmpty()) {
+          continue;
+        }
+
+        final var outputFile = outputFileOpt.get();
+        LOG.info("mkdir {}", outputFile.getParent());
+        Files.createDirectories(outputFile.getParent());
+        files.remove(outputFile);
+        files.put(outputFile, entry);
+      }
+
+      final var tasks = new ArrayList<Callable<String>>(files.size());
+      for (final var file : files.entrySet()) {
+        final var outputFile = file.getKey();
+        final var entry = file.getValue();
+        tasks.add(() -> {
+          LOG.info("write {}", outputFile);
+          Files.deleteIfExists(outputFile);
+
+          try (var inputStream = zip.getInputStream(entry);
+               var outputStream =
+                 Files.newOutputStream(
+                   outputFile,
+                   CREATE,
+                   WRITE,
+                   TRUNCATE_EXISTING)) {
+            return NHashing.sha256Transfer(inputStream, outputStream);
+          }
+        });
+      }
+
+      final var results = this.runAll(tasks);
+      var index = 0;
+      for (final var outputFile : files.keySet()) {
+        hashes.onFileHashed(outputFile, results.get(index));
+        ++index;
+      }
+    }
+  }
+
+  /**
+   * Run the given tasks on a bounded pool of platform threads, as the work
+   * of inflating entries is CPU bound. The first task to fail cancels the
+   * tasks that have not yet finished.
+   *
+   * @return The results of the tasks, in order
+   */
+
+  private List<String> runAll(
+    final List<Callable<String>> tasks)
+    throws IOException, NoSuchAlgorithmException
+  {
+    if (tasks.isEmpty()) {
+      return List.of();
+    }
+
+    try (var executor = this.newPool(tasks.size())) {
+      final var futures = new ArrayList<Future<String>>(tasks.size());
+      for (final var task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      return awaitAll(futures);
+    }
+  }
+
+  private ExecutorService newPool(
+    final int tasks)
+  {
+    return Executors.newFixedThreadPool(
+      Math.max(1, Math.min(this.parallelism, tasks)),
+      Thread.ofPlatform()
+        .name("com.io7m.naranja.runtimes.unpack.", 0L)
+        .daemon(true)
+        .factory()
+    );
+  }
+
+  /**
+   * Wait for all the given tasks. The first task to fail cancels the tasks
+   * that have not yet finished.
+   *
+   * @return The results of the tasks, in order
+   */
+
+  private static List<String> awaitAll(
+    final List<Future<String>> futures)
+    throws IOException, NoSuchAlgorithmException
+  {
+    final var results = new ArrayList<String>(futures.size());
+    try {
+      for (final var future : futures) {
+        results.add(future.get());
+      }
+    } catch (final ExecutionException e) {
+      cancelAll(futures);
+      throw unwrap(e);
+    } catch (final InterruptedException e) {
+      cancelAll(futures);
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+    return results;
+  }
+
+  private static void cancelAll(
+    final List<Future<String>> futures)
+  {
+    for (final var future : futures) {
+      future.cancel(true);
+    }
+  }
+
+  private static IOException unwrap(
+    final ExecutionException e)
+    throws NoSuchAlgorithmException
+  {
+    final var cause = e.getCause();
+    if (cause instanceof final IOException x) {
+      return x;
+    }
+    if (cause instanceof final NoSuchAlgorithmException x) {
+      throw x;
+    }
+    if (cause instanceof final RuntimeException x) {
+      throw x;
+    }
+    return new IOException(cause);
+  }
+
+  /**
+   * Entries larger than this are written by the thread reading the archive
+   * rather than being held in memory for a writer.
+   */
+
+  private static final int TAR_ENTRY_BUFFERED_MAXIMUM =
+    8 * 1024 * 1024;
+
+  /**
+   * The maximum number of octets of entry data held in memory waiting for
+   * writers. The thread reading the archive blocks when this is reached.
+   */
+
+  private static final int TAR_BUFFERED_MAXIMUM =
+    64 * 1024 * 1024;
+
+  /**
+   * Extract a tar.gz archive. A tar.gz archive can only be read
+   * sequentially, so the calling thread inflates and parses the archive,
+   * and hands the data of each file to a bounded pool of writers that
+   * create, write, and set the permissions of the files. Most of the time
+   * spent extracting a runtime goes to filesystem operations rather than
+   * inflation, so the writers run in parallel with each other and with the
+   * reader. The amount of data waiting for writers is bounded; large files
+   * are written directly by the reader.
+   */
+
+  private void unpackTarGZ(
+    final Path rtFile,
+    final Selection selection,
+    final NFileHashListenerType hashes)
+    throws IOException, NoSuchAlgorithmException
+  {
+    final var output = selection.output();
+    Files.createDirectories(output);
+
+    final var files = new ArrayList<Path>();
+    final var futures = new ArrayList<Future<String>>();
+    final var submitted = new HashSet<Path>();
+    final var buffered = new Semaphore(TAR_BUFFERED_MAXIMUM);
+    final var failed = new AtomicBoolean(false);
+
+    try (var resources = CloseableCollection.create(() -> {
+      return new IOException("One or more resources failed to close.");
+    })) {
+      final var raw =
+        resources.add(Files.newInputStream(rtFile));
+      final var bufferedStream =
+        resources.add(new BufferedInputStream(raw));
+      final var gzip =
+        resources.add(new GZIPInputStream(bufferedStream));
+      final var tarStream =
+        resources.add(new TarArchiveInputStream(gzip));
+
+      try (var executor = this.newPool(this.parallelism)) {
+        while (!failed.get()) {
+          final var entry = tarStream.getNextTarEntry();
+          if (entry == null) {
+            break;
+          }
+
+          final var outputFileOpt =
+            selection.fileFor(entry.getName(), entry.isDirectory());
+          if (outputFileOpt.isEmpty()) {
+            continue;
+          }
+
+          final var outputFile = outputFileOpt.get();
+
+          /*
+           * A later entry with the same name replaces an earlier one, so
+           * the earlier one must be written first.
+           */
+
+          if (!submitted.add(outputFile)) {
+            awaitAll(futures);
+          }
+
+          files.add(outputFile);
+          futures.add(
+            submitTarEntry(
+              executor,
+              tarStream,
+              entry,
+              outputFile,
+              buffered,
+              failed)
+          );
+        }
+
+        final var results = awaitAll(futures);
+        for (int index = 0; index < files.size(); ++index) {
+          hashes.onFileHashed(files.get(index), results.get(index));
+        }
+      } catch (final IOException | NoSuchAlgorithmException e) {
+        cancelAll(futures);
+        throw e;
+      }
+    }
+  }
+
+  private static Future<String> submitTarEntry(
+    final ExecutorService executor,
+    final TarArchiveInputStream tarStream,
+    final TarArchiveEntry entry,
+    final Path outputFile,
+    final Semaphore buffered,
+    final AtomicBoolean failed)
+    throws IOException, NoSuchAlgorithmException
+  {
+    final var mode = entry.getMode();
+    final var size = entry.getSize();
+    if (size > TAR_ENTRY_BUFFERED_MAXIMUM) {
+      return CompletableFuture.completedFuture(
+        writeFile(outputFile, tarStream, mode)
+      );
+    }
+
+    final var data = tarStream.readNBytes((int) size);
+    if ((long) data.length != size) {
+      throw new IOException(
+        "Entry %s ended %d octets early".formatted(
+          entry.getName(),
+          Long.valueOf(size - (long) data.length))
+      );
+    }
+
+    try {
+      buffered.acquire(data.length);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+
+    return executor.submit(() -> {
+      try {
+        return writeFile(outputFile, new ByteArrayInputStream(data), mode);
+      } catch (final Exception e) {
+        failed.set(true);
+        throw e;
+      } finally {
+        buffered.release(data.length);
+      }
+    });
+  }
+
+  private static String writeFile(
+    final Path outputFile,
+    final InputStream data,
+    final int mode)
+    throws IOException, NoSuchAlgorithmException
+  {
+    LOG.info("mkdir {}", outputFile.getParent());
+    Files.createDirectories(outputFile.getParent());
+
+    LOG.info("write {}", outputFile);
+    Files.deleteIfExists(outputFile);
+
+    final String hash;
+    try (var outputStream =
+           Files.newOutputStream(
+             outputFile,
+             CREATE,
+             WRITE,
+             TRUNCATE_EXISTING)) {
+      hash = NHashing.sha256Transfer(data, outputStream);
+    }
+
+    setPermissions(outputFile, mode);
+    return hash;
+  }
+
+  private static final int GROUP_EXEC = 0x08;
+  private static final int GROUP_READ = 0x20;
+  private static final int GROUP_WRITE = 0x10;
+  private static final int OTHER_EXEC = 0x01;
+  private static final int OTHER_READ = 0x04;
+  private static final int OTHER_WRITE = 0x02;
+  private static final int OWNER_EXEC = 0x40;
+  private static final int OWNER_READ = 0x100;
+  private static final int OWNER_WRITE = 0x80;
+
+  private static void setPermissions(
+    final Path outputFile,
+    final int mode)
+    throws IOException
+  {
+    final var perms = new HashSet<PosixFilePermission>();
+    addPermissionsOwner(mode, perms);
+    addPermissionsGroup(mode, perms);
+    addPermissionsOther(mode, perms);
+
+    try {
+      Files.setPosixFilePermissions(outputFile, perms);
+    } catch (final UnsupportedOperationException e) {
+      // We are on a non-POSIX filesystem
+    }
+  }
+
+  private static void addPermissionsOther(
+    final int mode,
+    final HashSet<PosixFilePermission> perms)
+  {
+    if ((mode & OTHER_EXEC) == OTHER_EXEC) {
+      perms.add(PosixFilePermission.OTHERS_EXECUTE);
+    }
+    if ((mode & OTHER_WRITE) == OTHER_WRITE) {
+      perms.add(PosixFilePermission.OTHERS_WRITE);
+    }
+    if ((mode & OTHER_READ) == OTHER_READ) {
+      perms.add(PosixFilePermission.OTHERS_READ);
+    }
+  }
+
+  private static void addPermissionsGroup(
+    final int mode,
+    final HashSet<PosixFilePermission> perms)
+  {
+    if ((mode & GROUP_EXEC) == GROUP_EXEC) {
+      perms.add(PosixFilePermission.GROUP_EXECUTE);
+    }
+    if ((mode & GROUP_WRITE) == GROUP_WRITE) {
+      perms.add(PosixFilePermission.GROUP_WRITE);
+    }
+    if ((mode & GROUP_READ) == GROUP_READ) {
+      perms.add(PosixFilePermission.GROUP_READ);
+    }
+  }
+
+  private static void addPermissionsOwner(
+    final int mode,
+    final HashSet<PosixFilePermission> perms)
+  {
+    if ((mode & OWNER_EXEC) == OWNER_EXEC) {
+      perms.add(PosixFilePermission.OWNER_EXECUTE);
+    }
+    if ((mode & OWNER_WRITE) == OWNER_WRITE) {
+      perms.add(PosixFilePermission.OWNER_WRITE);
+    }
+    if ((mode & OWNER_READ) == OWNER_READ) {
+      perms.add(PosixFilePermission.OWNER_READ);
+    }
+  }
+}
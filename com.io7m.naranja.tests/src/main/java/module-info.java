@@ -27,6 +27,7 @@ open module com.io7m.naranja.tests
   requires transitive com.io7m.jmulticlose.core;
   requires transitive com.io7m.quixote.core;
   requires transitive java.net.http;
+  requires transitive java.xml;
   requires transitive net.jqwik.api;
   requires transitive net.jqwik.engine;
   requires transitive org.apache.commons.compress;
@@ -0,0 +1,860 @@
+/*
+ * Copyright © 2023 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.naranja.tests;
+
+import com.io7m.lanark.core.RDottedName;
+import com.io7m.naranja.core.NApplicationType;
+import com.io7m.naranja.core.NApplicationWriterConfiguration;
+import com.io7m.naranja.core.NApplicationWriterCopyStrategy;
+import com.io7m.naranja.core.NApplicationWriterPhase;
+import com.io7m.naranja.core.NApplicationWriterProgressType;
+import com.io7m.naranja.core.NApplicationWriters;
+import com.io7m.naranja.core.NApplications;
+import com.io7m.naranja.core.NArchitecture;
+import com.io7m.naranja.core.NArtifact;
+import com.io7m.naranja.core.NArtifactType;
+import com.io7m.naranja.core.NException;
+import com.io7m.naranja.core.NFileHashListenerType;
+import com.io7m.naranja.core.NHashing;
+import com.io7m.naranja.core.NOperatingSystem;
+import com.io7m.naranja.core.NRuntime;
+import com.io7m.naranja.core.NRuntimeArchiveType;
+import com.io7m.naranja.core.NRuntimeDistribution;
+import com.io7m.naranja.core.NRuntimeInventoryType;
+import com.io7m.naranja.core.NRuntimeUnpackFilter;
+import com.io7m.naranja.core.NScope;
+import com.io7m.verona.core.Version;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static com.io7m.naranja.core.NApplicationBuilderType.Executable.EXECUTABLE;
+import static com.io7m.naranja.core.NApplicationBuilderType.Executable.NOT_EXECUTABLE;
+import static com.io7m.naranja.core.NApplicationWriterCopyStrategy.COPY;
+import static com.io7m.naranja.core.NApplicationWriterCopyStrategy.HARDLINK;
+import static com.io7m.naranja.core.NApplicationWriterCopyStrategy.REFLINK_OR_COPY;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class NApplicationWriterTest
+{
+  private Path directory;
+  private Path sources;
+  private NRuntimeInventoryType inventory;
+  private List<NApplicationWriterProgressType> progress;
+
+  @BeforeEach
+  public void setup()
+    throws Exception
+  {
+    this.directory =
+      NTestDirectories.createTempDirectory();
+    this.sources =
+      this.directory.resolve("sources");
+    this.inventory =
+      Mockito.mock(NRuntimeInventoryType.class);
+    this.progress =
+      Collections.synchronizedList(new ArrayList<>());
+
+    Files.createDirectories(this.sources);
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws Exception
+  {
+    NTestDirectories.deleteDirectory(this.directory);
+  }
+
+  private NApplicationType application()
+    throws Exception
+  {
+    final var builder =
+      NApplications.create(
+        new RDottedName("com.io7m.example"),
+        Version.of(1, 0, 0)
+      );
+
+    for (int index = 0; index < 32; ++index) {
+      final var name = "com.io7m.ex%d".formatted(Integer.valueOf(index));
+      final var file = this.sources.resolve(name + ".jar");
+      Files.writeString(file, name, StandardCharsets.UTF_8);
+
+      builder.artifactAdd(
+        file,
+        NScope.javaModulePath(),
+        NOperatingSystem.any(),
+        NArchitecture.any(),
+        new NArtifact(
+          new RDottedName(name),
+          new RDottedName(name),
+          Version.of(1, 0, 0),
+          NArtifactType.jar()
+        )
+      );
+    }
+
+    for (int index = 0; index < 32; ++index) {
+      final var name = "file%d.txt".formatted(Integer.valueOf(index));
+      final var file = this.sources.resolve(name);
+      Files.writeString(file, name, StandardCharsets.UTF_8);
+      builder.fileAdd(
+        "conf/" + name,
+        file,
+        index % 2 == 0 ? EXECUTABLE : NOT_EXECUTABLE
+      );
+    }
+
+    return builder.build();
+  }
+
+  private Path write(
+    final NApplicationType application,
+    final Path output,
+    final int copyParallelism)
+    throws Exception
+  {
+    return this.write(application, output, copyParallelism, COPY, false);
+  }
+
+  private Path write(
+    final NApplicationType application,
+    final Path output,
+    final int copyParallelism,
+    final NApplicationWriterCopyStrategy copyStrategy)
+    throws Exception
+  {
+    return this.write(
+      application, output, copyParallelism, copyStrategy, false);
+  }
+
+  private Path write(
+    final NApplicationType application,
+    final Path output,
+    final int copyParallelism,
+    final NApplicationWriterCopyStrategy copyStrategy,
+    final boolean incremental)
+    throws Exception
+  {
+    final var writers = new NApplicationWriters();
+    final var configuration =
+      new NApplicationWriterConfiguration(
+        output,
+        this.inventory,
+        application,
+        copyParallelism,
+        copyParallelism,
+        copyStrategy,
+        incremental
+      );
+
+    try (var writer = writers.create(configuration)) {
+      writer.execute(this.progress::add);
+      return writer.outputPath();
+    }
+  }
+
+  /**
+   * The manifest is serialized exactly as expected, including the escaping
+   * of awkward characters.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testManifestExact()
+    throws Exception
+  {
+    final var application =
+      NApplications.create(
+          new RDottedName("com.io7m.example"),
+          Version.of(1, 0, 0)
+        )
+        .metadataSet("A", "a \"b\" & <c>")
+        .metadataSet("E", "")
+        .metadataSet("T", "t\tn\nr\r\u007f\ud834\udd1e")
+        .metadataSet("k\"\t\n\r\ud834\udd1e", "v")
+        .build();
+
+    final var output =
+      this.write(application, this.directory.resolve("out"), 1);
+
+    final var expected =
+      String.join(
+        "\n",
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>",
+        "<Application xmlns:dc=\"http://purl.org/dc/elements/1.1/\" Name=\"com.io7m.example\" Version=\"1.0.0\" xmlns=\"urn:com.io7m.naranja:1:0\">",
+        "  <Metadata>",
+        "    <dc:identifier>com.io7m.example:1.0.0</dc:identifier>",
+        "    <MetaProperty Name=\"A\">a \"b\" &amp; &lt;c&gt;</MetaProperty>",
+        "    <MetaProperty Name=\"E\"/>",
+        "    <MetaProperty Name=\"T\">t\tn",
+        "r&#13;\u007f\ud834\udd1e</MetaProperty>",
+        "    <MetaProperty Name=\"k&quot;&#9;&#10;&#13;\ud834\udd1e\">v</MetaProperty>",
+        "  </Metadata>",
+        "  <Files/>",
+        "  <Runtimes/>",
+        "</Application>",
+        ""
+      );
+
+    assertEquals(
+      expected,
+      Files.readString(output.resolve("application.xml"))
+    );
+  }
+
+  /**
+   * Whitespace in attribute values and carriage returns in text survive a
+   * round trip through an XML parser.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testManifestWhitespacePreserved()
+    throws Exception
+  {
+    final var key = "k\t\n\r \"'<>&";
+    final var value = "t\tn\nr\rc\r\n";
+    final var application =
+      NApplications.create(
+          new RDottedName("com.io7m.example"),
+          Version.of(1, 0, 0)
+        )
+        .metadataSet(key, value)
+        .build();
+
+    final var output =
+      this.write(application, this.directory.resolve("out"), 1);
+
+    final var factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    final var document =
+      factory.newDocumentBuilder()
+        .parse(output.resolve("application.xml").toFile());
+
+    final var property =
+      (Element) document.getElementsByTagNameNS("*", "MetaProperty")
+        .item(0);
+
+    assertEquals(key, property.getAttribute("Name"));
+    assertEquals(value, property.getTextContent());
+  }
+
+  /**
+   * Characters that cannot appear in XML documents are rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testManifestInvalidCharacter()
+    throws Exception
+  {
+    final var application =
+      NApplications.create(
+          new RDottedName("com.io7m.example"),
+          Version.of(1, 0, 0)
+        )
+        .metadataSet("A", "a\u0001")
+        .build();
+
+    assertThrows(NException.class, () -> {
+      this.write(application, this.directory.resolve("out"), 1);
+    });
+  }
+
+  /**
+   * Copying files in parallel produces the same output as copying files
+   * sequentially.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testParallelCopyDeterministic()
+    throws Exception
+  {
+    final var application =
+      this.application();
+    final var output =
+      this.directory.resolve("out");
+
+    final var sequential =
+      this.write(application, output, 1);
+    final var sequentialManifest =
+      Files.readAllBytes(sequential.resolve("application.xml"));
+
+    NTestDirectories.deleteDirectory(output);
+
+    final var parallel =
+      this.write(application, output, 8);
+    final var parallelManifest =
+      Files.readAllBytes(parallel.resolve("application.xml"));
+
+    assertArrayEquals(sequentialManifest, parallelManifest);
+
+    for (int index = 0; index < 32; ++index) {
+      final var name = "com.io7m.ex%d".formatted(Integer.valueOf(index));
+      final var file =
+        parallel.resolve("lib")
+          .resolve("module-path")
+          .resolve("any")
+          .resolve("any")
+          .resolve(name + "-1.0.0.jar");
+      assertEquals(name, Files.readString(file));
+    }
+
+    for (int index = 0; index < 32; ++index) {
+      final var name = "file%d.txt".formatted(Integer.valueOf(index));
+      final var file = parallel.resolve("conf").resolve(name);
+      assertEquals(name, Files.readString(file));
+      if (index % 2 == 0) {
+        assertTrue(Files.isExecutable(file));
+      }
+    }
+  }
+
+  /**
+   * Failing to copy a file fails the writer.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testParallelCopyFails()
+    throws Exception
+  {
+    final var application = this.application();
+    Files.delete(this.sources.resolve("file7.txt"));
+
+    assertThrows(Exception.class, () -> {
+      this.write(application, this.directory.resolve("out"), 4);
+    });
+  }
+
+  /**
+   * Copy and runtime parallelism must be positive.
+   */
+
+  @Test
+  public void testParallelismInvalid()
+  {
+    assertThrows(IllegalArgumentException.class, () -> {
+      new NApplicationWriterConfiguration(
+        this.directory,
+        this.inventory,
+        this.application(),
+        0,
+        1,
+        COPY,
+        false
+      );
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      new NApplicationWriterConfiguration(
+        this.directory,
+        this.inventory,
+        this.application(),
+        1,
+        0,
+        COPY,
+        false
+      );
+    });
+  }
+
+  /**
+   * Hardlinked files share the source file, except for those files that
+   * must be made executable.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCopyHardlink()
+    throws Exception
+  {
+    final var application =
+      this.application();
+    final var output =
+      this.write(application, this.directory.resolve("out"), 4, HARDLINK);
+
+    final var library =
+      output.resolve("lib")
+        .resolve("module-path")
+        .resolve("any")
+        .resolve("any")
+        .resolve("com.io7m.ex0-1.0.0.jar");
+
+    assertTrue(
+      Files.isSameFile(this.sources.resolve("com.io7m.ex0.jar"), library)
+    );
+    assertTrue(
+      Files.isSameFile(
+        this.sources.resolve("file1.txt"),
+        output.resolve("conf").resolve("file1.txt"))
+    );
+    assertFalse(
+      Files.isSameFile(
+        this.sources.resolve("file0.txt"),
+        output.resolve("conf").resolve("file0.txt"))
+    );
+    assertFalse(Files.isExecutable(this.sources.resolve("file0.txt")));
+  }
+
+  /**
+   * Writing over a hardlinked output never modifies the link sources.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCopyReflinkOverHardlink()
+    throws Exception
+  {
+    final var application =
+      this.application();
+    final var outputPath =
+      this.directory.resolve("out");
+
+    this.write(application, outputPath, 4, HARDLINK);
+    final var output =
+      this.write(application, outputPath, 4, REFLINK_OR_COPY);
+
+    final var library =
+      output.resolve("lib")
+        .resolve("module-path")
+        .resolve("any")
+        .resolve("any")
+        .resolve("com.io7m.ex0-1.0.0.jar");
+
+    assertFalse(
+      Files.isSameFile(this.sources.resolve("com.io7m.ex0.jar"), library)
+    );
+    assertEquals("com.io7m.ex0", Files.readString(library));
+    assertEquals(
+      "com.io7m.ex0",
+      Files.readString(this.sources.resolve("com.io7m.ex0.jar"))
+    );
+  }
+
+  /**
+   * Incremental runs only write files that have changed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testIncrementalFiles()
+    throws Exception
+  {
+    final var application =
+      this.application();
+    final var outputPath =
+      this.directory.resolve("out");
+
+    final var output =
+      this.write(application, outputPath, 4, COPY, true);
+    final var manifest =
+      Files.readAllBytes(output.resolve("application.xml"));
+
+    assertTrue(
+      Files.isRegularFile(outputPath.resolve("com.io7m.example.naranja-state"))
+    );
+
+    final var file0 = output.resolve("conf").resolve("file0.txt");
+    final var file1 = output.resolve("conf").resolve("file1.txt");
+    final var oldTime = FileTime.fromMillis(1_000_000L);
+    Files.setLastModifiedTime(file0, oldTime);
+    Files.setLastModifiedTime(file1, oldTime);
+
+    /*
+     * Changing the output file invalidates its state; changing only the
+     * state of other outputs does not.
+     */
+
+    this.write(application, outputPath, 4, COPY, true);
+    assertFalse(Files.getLastModifiedTime(file0).equals(oldTime));
+    assertFalse(Files.getLastModifiedTime(file1).equals(oldTime));
+
+    Files.setLastModifiedTime(file0, oldTime);
+    this.write(application, outputPath, 4, COPY, true);
+    assertFalse(Files.getLastModifiedTime(file0).equals(oldTime));
+
+    final var file1Time = Files.getLastModifiedTime(file1);
+    this.write(application, outputPath, 4, COPY, true);
+    assertEquals(file1Time, Files.getLastModifiedTime(file1));
+
+    assertArrayEquals(
+      manifest,
+      Files.readAllBytes(output.resolve("application.xml"))
+    );
+
+    Files.writeString(this.sources.resolve("file1.txt"), "changed");
+    this.write(application, outputPath, 4, COPY, true);
+    assertEquals("changed", Files.readString(file1));
+  }
+
+  /**
+   * Incremental runs only unpack runtimes that have changed, and delete
+   * runtimes that are no longer present.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testIncrementalRuntimes()
+    throws Exception
+  {
+    final var runtime =
+      new NRuntime(
+        "3880ef683b04f9e23cb95311e2588dad",
+        new NRuntimeDistribution("temurin"),
+        NOperatingSystem.linux(),
+        NArchitecture.x86_64(),
+        NRuntimeArchiveType.RUNTIME_ARCHIVE_TAR_GZ,
+        URI.create("http://www.example.com/"),
+        17,
+        "17.0.7_7",
+        100L
+      );
+
+    Mockito.doAnswer(invocation -> {
+      final Path target = invocation.getArgument(1);
+      Files.createDirectories(target.resolve("bin"));
+      Files.writeString(target.resolve("bin").resolve("java"), "java");
+      return null;
+    }).when(this.inventory)
+      .runtimeUnpack(Mockito.any(), Mockito.any(), Mockito.any());
+
+    final var application =
+      NApplications.create(
+          new RDottedName("com.io7m.example"),
+          Version.of(1, 0, 0))
+        .runtimeAdd(runtime)
+        .build();
+
+    final var outputPath =
+      this.directory.resolve("out");
+
+    this.write(application, outputPath, 4, COPY, true);
+    final var output =
+      this.write(application, outputPath, 4, COPY, true);
+
+    Mockito.verify(this.inventory, Mockito.times(1))
+      .runtimeUnpack(Mockito.any(), Mockito.any(), Mockito.any());
+
+    final var javaFile =
+      output.resolve("runtime")
+        .resolve("linux")
+        .resolve("x86_64")
+        .resolve("bin")
+        .resolve("java");
+
+    assertTrue(Files.isRegularFile(javaFile));
+
+    final var empty =
+      NApplications.create(
+          new RDottedName("com.io7m.example"),
+          Version.of(1, 0, 0))
+        .build();
+
+    this.write(empty, outputPath, 4, COPY, true);
+    assertFalse(Files.exists(javaFile));
+  }
+
+  /**
+   * Runtime unpack filters are passed to the inventory, and changing the
+   * filter of a runtime causes the runtime to be unpacked again.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRuntimeUnpackFilter()
+    throws Exception
+  {
+    final var runtime =
+      new NRuntime(
+        "3880ef683b04f9e23cb95311e2588dad",
+        new NRuntimeDistribution("temurin"),
+        NOperatingSystem.linux(),
+        NArchitecture.x86_64(),
+        NRuntimeArchiveType.RUNTIME_ARCHIVE_TAR_GZ,
+        URI.create("http://www.example.com/"),
+        17,
+        "17.0.7_7",
+        100L
+      );
+
+    final var filters = new ArrayList<NRuntimeUnpackFilter>();
+    Mockito.doAnswer(invocation -> {
+      final Path target = invocation.getArgument(1);
+      filters.add(invocation.getArgument(2));
+      Files.createDirectories(target.resolve("bin"));
+      Files.writeString(target.resolve("bin").resolve("java"), "java");
+      return null;
+    }).when(this.inventory)
+      .runtimeUnpack(
+        Mockito.any(),
+        Mockito.any(),
+        Mockito.any(NRuntimeUnpackFilter.class),
+        Mockito.any());
+
+    final var filter0 =
+      new NRuntimeUnpackFilter(List.of(), List.of("man", "include/"));
+    final var filter1 =
+      new NRuntimeUnpackFilter(List.of(), List.of("man"));
+
+    final var outputPath =
+      this.directory.resolve("out");
+
+    for (final var filter : List.of(filter0, filter0, filter1)) {
+      final var application =
+        NApplications.create(
+            new RDottedName("com.io7m.example"),
+            Version.of(1, 0, 0))
+          .runtimeAdd(runtime)
+          .runtimeSetUnpackFilter(runtime, filter)
+          .build();
+
+      this.write(application, outputPath, 4, COPY, true);
+    }
+
+    assertEquals(List.of(filter0, filter1), filters);
+    assertEquals(List.of("man", "include"), filter0.excludes());
+  }
+
+  /**
+   * The manifest uses the hashes computed while files were copied and
+   * unpacked, and only hashes files itself when no hash was reported.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testManifestHashesRecorded()
+    throws Exception
+  {
+    final var runtime =
+      new NRuntime(
+        "3880ef683b04f9e23cb95311e2588dad",
+        new NRuntimeDistribution("temurin"),
+        NOperatingSystem.linux(),
+        NArchitecture.x86_64(),
+        NRuntimeArchiveType.RUNTIME_ARCHIVE_TAR_GZ,
+        URI.create("http://www.example.com/"),
+        17,
+        "17.0.7_7",
+        100L
+      );
+
+    /*
+     * The unpacked "java" file is reported with a hash that cannot be the
+     * real hash; if the manifest contains it, the file was not read back.
+     */
+
+    Mockito.doAnswer(invocation -> {
+      final Path target = invocation.getArgument(1);
+      final NFileHashListenerType hashes = invocation.getArgument(2);
+      final var bin = target.resolve("bin");
+      Files.createDirectories(bin);
+      Files.writeString(bin.resolve("java"), "java");
+      Files.writeString(bin.resolve("jar"), "jar");
+      hashes.onFileHashed(bin.resolve("java"), "reported");
+      return null;
+    }).when(this.inventory)
+      .runtimeUnpack(Mockito.any(), Mockito.any(), Mockito.any());
+
+    final var source = this.sources.resolve("file.txt");
+    Files.writeString(source, "file", StandardCharsets.UTF_8);
+
+    final var application =
+      NApplications.create(
+          new RDottedName("com.io7m.example"),
+          Version.of(1, 0, 0))
+        .runtimeAdd(runtime)
+        .fileAdd("conf/file.txt", source, NOT_EXECUTABLE)
+        .build();
+
+    final var output =
+      this.write(application, this.directory.resolve("out"), 4);
+    final var manifest =
+      Files.readString(output.resolve("application.xml"));
+
+    final var bin =
+      output.resolve("runtime")
+        .resolve("linux")
+        .resolve("x86_64")
+        .resolve("bin");
+
+    assertTrue(manifest.contains(
+      "<MetaProperty Name=\"HashValue\">reported</MetaProperty>"));
+    assertTrue(manifest.contains(
+      "<MetaProperty Name=\"HashValue\">%s</MetaProperty>"
+        .formatted(NHashing.sha256Of(bin.resolve("jar")))));
+    assertTrue(manifest.contains(
+      "<MetaProperty Name=\"HashValue\">%s</MetaProperty>"
+        .formatted(NHashing.sha256Of(source))));
+  }
+
+  /**
+   * Runtimes for different platforms are unpacked concurrently.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRuntimesConcurrent()
+    throws Exception
+  {
+    final var runtimes =
+      List.of(
+        new NRuntime(
+          "3880ef683b04f9e23cb95311e2588dad",
+          new NRuntimeDistribution("temurin"),
+          NOperatingSystem.linux(),
+          NArchitecture.x86_64(),
+          NRuntimeArchiveType.RUNTIME_ARCHIVE_TAR_GZ,
+          URI.create("http://www.example.com/"),
+          17,
+          "17.0.7_7",
+          100L
+        ),
+        new NRuntime(
+          "7bb8e4f1a9d0d6a4f3a4ad48e2ab0a8a",
+          new NRuntimeDistribution("temurin"),
+          NOperatingSystem.windows(),
+          NArchitecture.x86_64(),
+          NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP,
+          URI.create("http://www.example.com/"),
+          17,
+          "17.0.7_7",
+          100L
+        )
+      );
+
+    /*
+     * Each unpack waits for the other; if runtimes were unpacked one at a
+     * time, the barrier would time out.
+     */
+
+    final var barrier = new CyclicBarrier(runtimes.size());
+    Mockito.doAnswer(invocation -> {
+      final Path target = invocation.getArgument(1);
+      barrier.await(10L, TimeUnit.SECONDS);
+      Files.createDirectories(target.resolve("bin"));
+      Files.writeString(target.resolve("bin").resolve("java"), "java");
+      return null;
+    }).when(this.inventory)
+      .runtimeUnpack(Mockito.any(), Mockito.any(), Mockito.any());
+
+    final var builder =
+      NApplications.create(
+        new RDottedName("com.io7m.example"),
+        Version.of(1, 0, 0));
+    for (final var runtime : runtimes) {
+      builder.runtimeAdd(runtime);
+    }
+
+    final var output =
+      this.write(builder.build(), this.directory.resolve("out"), 2);
+
+    assertTrue(Files.isRegularFile(
+      output.resolve("runtime/linux/x86_64/bin/java")));
+    assertTrue(Files.isRegularFile(
+      output.resolve("runtime/windows/x86_64/bin/java")));
+  }
+
+  /**
+   * Progress is reported for every phase, in order, and every file in a
+   * phase is counted.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testProgress()
+    throws Exception
+  {
+    this.write(this.application(), this.directory.resolve("out"), 4);
+
+    final var phases =
+      this.progress.stream()
+        .filter(NApplicationWriterProgressType::phaseCompleted)
+        .toList();
+
+    assertEquals(
+      List.of(NApplicationWriterPhase.values()),
+      phases.stream()
+        .map(NApplicationWriterProgressType::phase)
+        .toList()
+    );
+
+    for (final var phase : phases) {
+      assertEquals(phase.fileCount(), phase.fileIndex());
+      assertFalse(phase.phaseElapsed().isNegative());
+    }
+
+    final var libraries = phases.get(0);
+    assertEquals(32L, libraries.fileCount());
+    assertTrue(libraries.byteCount() > 0L);
+
+    final var extras = phases.get(2);
+    assertEquals(32L, extras.fileCount());
+    assertTrue(extras.byteCount() > 0L);
+
+    /*
+     * The extra files were hashed while they were copied, so the hash phase
+     * reads nothing.
+     */
+
+    final var hash = phases.get(3);
+    assertEquals(32L, hash.fileCount());
+    assertEquals(0L, hash.byteCount());
+
+    final var files =
+      this.progress.stream()
+        .filter(p -> p.phase() == NApplicationWriterPhase.COPY_EXTRAS)
+        .map(NApplicationWriterProgressType::fileName)
+        .filter(n -> !n.isEmpty())
+        .sorted()
+        .toList();
+
+    assertEquals(32, files.size());
+    assertEquals("conf/file0.txt", files.get(0));
+  }
+}
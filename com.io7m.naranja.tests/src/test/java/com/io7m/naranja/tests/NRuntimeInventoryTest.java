@@ -19,12 +19,20 @@ package com.io7m.naranja.tests;
 
 import com.io7m.naranja.core.NArchitecture;
 import com.io7m.naranja.core.NException;
+import com.io7m.naranja.core.NHashing;
 import com.io7m.naranja.core.NOperatingSystem;
+import com.io7m.naranja.core.NRuntime;
+import com.io7m.naranja.core.NRuntimeArchiveType;
 import com.io7m.naranja.core.NRuntimeDistribution;
+import com.io7m.naranja.core.NRuntimeDownloadProgress;
 import com.io7m.naranja.runtimes.NRuntimeInventories;
+import com.io7m.naranja.runtimes.NRuntimeInventoryConfiguration;
 import com.io7m.naranja.core.NRuntimeInventoryType;
+import com.io7m.naranja.core.NRuntimeUnpackFilter;
 import com.io7m.quixote.core.QWebServerType;
 import com.io7m.quixote.core.QWebServers;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -32,18 +40,48 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.http.HttpClient;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import static com.io7m.naranja.core.NErrorCodes.errorRuntimeIdInvalid;
 import static com.io7m.naranja.tests.NTestDirectories.resourceBytesOf;
 import static com.io7m.naranja.tests.NTestDirectories.resourceTextOf;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public final class NRuntimeInventoryTest
 {
@@ -69,12 +107,13 @@ public final class NRuntimeInventoryTest
 
   @AfterEach
   public void tearDown()
-    throws IOException
+    throws Exception
   {
     for (final var request : this.server.requestsReceived()) {
       LOG.debug("request: {}", request);
     }
 
+    this.inventory.close();
     NTestDirectories.deleteDirectory(this.directory);
     this.server.close();
   }
@@ -145,17 +184,12 @@ public final class NRuntimeInventoryTest
       .forPath("//disco/v3.0/packages")
       .withFixedText(resourceTextOf("inventory_request2.json"));
     this.server.addResponse()
-      .forPath("//disco/v3.0/packages/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request3.json"));
-    this.server.addResponse()
-      .forPath("//disco/v3.0/ids/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request4.json"));
-    this.server.addResponse()
-      .forPath("//disco/v3.0/packages/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request3.json"));
-    this.server.addResponse()
-      .forPath("//disco/v3.0/ids/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request4.json"));
+      .forPath("/disco/v3.0/ids/3880ef683b04f9e23cb95311e2588dad/redirect")
+      .withStatus(302)
+      .withHeader(
+        "Location",
+        this.server.uri().resolve("/blob.zip").toString()
+      );
     this.server.addResponse()
       .forPath("/blob.zip")
       .withFixedData(resourceBytesOf("data.bin"));
@@ -208,17 +242,12 @@ public final class NRuntimeInventoryTest
       .forPath("//disco/v3.0/packages")
       .withFixedText(resourceTextOf("inventory_request2.json"));
     this.server.addResponse()
-      .forPath("//disco/v3.0/packages/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request3.json"));
-    this.server.addResponse()
-      .forPath("//disco/v3.0/ids/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request4.json"));
-    this.server.addResponse()
-      .forPath("//disco/v3.0/packages/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request3.json"));
-    this.server.addResponse()
-      .forPath("//disco/v3.0/ids/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request4.json"));
+      .forPath("/disco/v3.0/ids/3880ef683b04f9e23cb95311e2588dad/redirect")
+      .withStatus(302)
+      .withHeader(
+        "Location",
+        this.server.uri().resolve("/blob.zip").toString()
+      );
     this.server.addResponse()
       .forPath("/blob.zip")
       .withStatus(500);
@@ -254,17 +283,12 @@ public final class NRuntimeInventoryTest
       .forPath("//disco/v3.0/packages")
       .withFixedText(resourceTextOf("inventory_request2.json"));
     this.server.addResponse()
-      .forPath("//disco/v3.0/packages/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request3.json"));
-    this.server.addResponse()
-      .forPath("//disco/v3.0/ids/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request4.json"));
-    this.server.addResponse()
-      .forPath("//disco/v3.0/packages/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request3.json"));
-    this.server.addResponse()
-      .forPath("//disco/v3.0/ids/3880ef683b04f9e23cb95311e2588dad")
-      .withFixedText(resourceTextOf("inventory_request4.json"));
+      .forPath("/disco/v3.0/ids/3880ef683b04f9e23cb95311e2588dad/redirect")
+      .withStatus(302)
+      .withHeader(
+        "Location",
+        this.server.uri().resolve("/blob.zip").toString()
+      );
     this.server.addResponse()
       .forPath("/blob.zip")
       .withFixedText("short!");
@@ -285,4 +309,1747 @@ public final class NRuntimeInventoryTest
         .get();
     });
   }
+
+  private static NRuntime localRuntime(
+    final NRuntimeArchiveType archiveType)
+  {
+    return localRuntime(archiveType, URI.create("http://www.example.com/"), 100L);
+  }
+
+  private static NRuntime localRuntime(
+    final NRuntimeArchiveType archiveType,
+    final URI source,
+    final long size)
+  {
+    return localRuntime(
+      "3880ef683b04f9e23cb95311e2588dad",
+      archiveType,
+      source,
+      size
+    );
+  }
+
+  private static NRuntime localRuntime(
+    final String id,
+    final NRuntimeArchiveType archiveType,
+    final URI source,
+    final long size)
+  {
+    return new NRuntime(
+      id,
+      new NRuntimeDistribution("temurin"),
+      NOperatingSystem.linux(),
+      NArchitecture.x86_64(),
+      archiveType,
+      source,
+      17,
+      "17.0.7_7",
+      size
+    );
+  }
+
+  private static final Map<String, String> ARCHIVE_FILES =
+    Map.ofEntries(
+      Map.entry("jdk-17/bin/java", "java"),
+      Map.entry("jdk-17/lib/modules", "modules"),
+      Map.entry("jdk-17/lib/src.zip", "src"),
+      Map.entry("jdk-17/release", "release")
+    );
+
+  private Path writeArchive(
+    final NRuntime runtime)
+    throws IOException
+  {
+    final var files = new TreeMap<String, byte[]>();
+    for (final var entry : ARCHIVE_FILES.entrySet()) {
+      files.put(
+        entry.getKey(),
+        entry.getValue().getBytes(StandardCharsets.UTF_8)
+      );
+    }
+    return this.writeArchive(runtime, files);
+  }
+
+  private Path writeArchive(
+    final NRuntime runtime,
+    final Map<String, byte[]> archiveFiles)
+    throws IOException
+  {
+    final var file =
+      this.directory.resolve("runtimes")
+        .resolve(runtime.id() + ".rt");
+
+    Files.createDirectories(file.getParent());
+
+    final var files = new TreeMap<>(archiveFiles);
+    switch (runtime.archiveType()) {
+      case RUNTIME_ARCHIVE_TAR_GZ -> {
+        try (var output =
+               new TarArchiveOutputStream(
+                 new GZIPOutputStream(Files.newOutputStream(file)))) {
+          for (final var entry : files.entrySet()) {
+            final var data = entry.getValue();
+            final var tarEntry = new TarArchiveEntry(entry.getKey());
+            tarEntry.setSize(data.length);
+            tarEntry.setMode(0755);
+            output.putArchiveEntry(tarEntry);
+            output.write(data);
+            output.closeArchiveEntry();
+          }
+        }
+      }
+      case RUNTIME_ARCHIVE_ZIP -> {
+        try (var output = new ZipOutputStream(Files.newOutputStream(file))) {
+          for (final var entry : files.entrySet()) {
+            output.putNextEntry(new ZipEntry(entry.getKey()));
+            output.write(entry.getValue());
+            output.closeEntry();
+          }
+        }
+      }
+    }
+    return file;
+  }
+
+  private void checkUnpackHashes(
+    final NRuntimeArchiveType archiveType)
+    throws Exception
+  {
+    final var runtime = localRuntime(archiveType);
+    this.writeArchive(runtime);
+
+    final var output =
+      this.directory.resolve("output")
+        .toAbsolutePath();
+    final var hashes =
+      new ConcurrentHashMap<Path, String>();
+
+    this.inventory.runtimeUnpack(runtime, output, hashes::put);
+
+    assertEquals(
+      Set.of(
+        output.resolve("bin/java"),
+        output.resolve("lib/modules"),
+        output.resolve("release")
+      ),
+      hashes.keySet()
+    );
+
+    for (final var entry : hashes.entrySet()) {
+      assertEquals(NHashing.sha256Of(entry.getKey()), entry.getValue());
+    }
+    assertFalse(Files.exists(output.resolve("lib/src.zip")));
+  }
+
+  /**
+   * Unpacking a tar.gz runtime reports the hash of every file written.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryUnpackHashesTarGZ()
+    throws Exception
+  {
+    this.checkUnpackHashes(NRuntimeArchiveType.RUNTIME_ARCHIVE_TAR_GZ);
+  }
+
+  /**
+   * Unpacking a zip runtime reports the hash of every file written.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryUnpackHashesZip()
+    throws Exception
+  {
+    this.checkUnpackHashes(NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP);
+  }
+
+  /**
+   * Zip runtimes with many entries are extracted in parallel, writing the
+   * same files and reporting the same hashes as a sequential extraction.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryUnpackZipParallel()
+    throws Exception
+  {
+    final var runtime =
+      localRuntime(NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP);
+
+    final var files = new TreeMap<String, byte[]>();
+    for (int index = 0; index < 200; ++index) {
+      final var data = new byte[index * 97];
+      Arrays.fill(data, (byte) index);
+      files.put("jdk-17/lib/d%d/f%d".formatted(
+        Integer.valueOf(index % 7),
+        Integer.valueOf(index)), data);
+    }
+    files.put("jdk-17/lib/src.zip", new byte[100]);
+    this.writeArchive(runtime, files);
+
+    final var results = new ArrayList<Map<Path, String>>();
+    for (final var parallelism : List.of(1, 4)) {
+      final var configuration =
+        NRuntimeInventoryConfiguration.defaults()
+          .withUnpackParallelism(parallelism.intValue());
+      final var output =
+        this.directory.resolve("output" + parallelism)
+          .toAbsolutePath();
+      final var hashes =
+        new ConcurrentHashMap<Path, String>();
+
+      try (var custom = new NRuntimeInventories()
+        .openWithURI(this.directory, this.server.uri(), configuration)) {
+        custom.runtimeUnpack(runtime, output, hashes::put);
+      }
+
+      for (final var entry : files.entrySet()) {
+        final var file =
+          output.resolve(entry.getKey().substring("jdk-17/".length()));
+        if (file.endsWith("src.zip")) {
+          assertFalse(Files.exists(file));
+          continue;
+        }
+        assertArrayEquals(entry.getValue(), Files.readAllBytes(file));
+        assertEquals(NHashing.sha256Of(file), hashes.get(file));
+      }
+
+      final var relative = new TreeMap<Path, String>();
+      for (final var entry : hashes.entrySet()) {
+        relative.put(output.relativize(entry.getKey()), entry.getValue());
+      }
+      results.add(relative);
+
+      this.inventory.runtimeDelete(runtime);
+      this.writeArchive(runtime, files);
+    }
+
+    assertEquals(200, results.get(0).size());
+    assertEquals(results.get(0), results.get(1));
+  }
+
+  /**
+   * Tar.gz runtimes are extracted by a pipeline of writers. Later entries
+   * replace earlier entries with the same name, large entries are written
+   * completely, and file permissions are preserved.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryUnpackTarGZPipelined()
+    throws Exception
+  {
+    final var runtime =
+      localRuntime(NRuntimeArchiveType.RUNTIME_ARCHIVE_TAR_GZ);
+
+    final var archive =
+      this.directory.resolve("runtimes")
+        .resolve(runtime.id() + ".rt");
+    Files.createDirectories(archive.getParent());
+
+    final var expected = new TreeMap<String, byte[]>();
+    final var large = new byte[9 * 1024 * 1024];
+    for (int index = 0; index < large.length; ++index) {
+      large[index] = (byte) (index * 31);
+    }
+
+    try (var output =
+           new TarArchiveOutputStream(
+             new GZIPOutputStream(Files.newOutputStream(archive)))) {
+      output.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+      for (int index = 0; index < 100; ++index) {
+        final var data = new byte[index * 31];
+        Arrays.fill(data, (byte) index);
+        final var name =
+          "jdk-17/bin/d%d/f%d".formatted(
+            Integer.valueOf(index % 5),
+            Integer.valueOf(index));
+        writeTarEntry(output, name, data, index % 2 == 0 ? 0755 : 0644);
+        expected.put(name, data);
+      }
+
+      writeTarEntry(output, "jdk-17/lib/modules", large, 0644);
+      expected.put("jdk-17/lib/modules", large);
+
+      final var replaced = "replaced".getBytes(StandardCharsets.UTF_8);
+      writeTarEntry(output, "jdk-17/release", new byte[4096], 0644);
+      writeTarEntry(output, "jdk-17/release", replaced, 0644);
+      expected.put("jdk-17/release", replaced);
+    }
+
+    final var output =
+      this.directory.resolve("output").toAbsolutePath();
+    final var hashes =
+      new ConcurrentHashMap<Path, String>();
+
+    try (var custom = new NRuntimeInventories()
+      .openWithURI(
+        this.directory,
+        this.server.uri(),
+        NRuntimeInventoryConfiguration.defaults()
+          .withUnpackParallelism(4))) {
+      custom.runtimeUnpack(runtime, output, hashes::put);
+    }
+
+    assertEquals(expected.size(), hashes.size());
+    for (final var entry : expected.entrySet()) {
+      final var file =
+        output.resolve(entry.getKey().substring("jdk-17/".length()));
+      assertArrayEquals(entry.getValue(), Files.readAllBytes(file));
+      assertEquals(NHashing.sha256Of(file), hashes.get(file));
+    }
+
+    if (FileSystems.getDefault().supportedFileAttributeViews()
+      .contains("posix")) {
+      assertTrue(Files.isExecutable(output.resolve("bin/d0/f0")));
+      assertFalse(Files.isExecutable(output.resolve("bin/d1/f1")));
+    }
+  }
+
+  private static void writeTarEntry(
+    final TarArchiveOutputStream output,
+    final String name,
+    final byte[] data,
+    final int mode)
+    throws IOException
+  {
+    final var tarEntry = new TarArchiveEntry(name);
+    tarEntry.setSize(data.length);
+    tarEntry.setMode(mode);
+    output.putArchiveEntry(tarEntry);
+    output.write(data);
+    output.closeArchiveEntry();
+  }
+
+  /**
+   * Zip entries that would be written outside the output directory are
+   * rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryUnpackZipTraversal()
+    throws Exception
+  {
+    final var runtime =
+      localRuntime(NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP);
+
+    this.writeArchive(
+      runtime,
+      Map.of(
+        "jdk-17/release", "release".getBytes(StandardCharsets.UTF_8),
+        "jdk-17/../../escaped", "x".getBytes(StandardCharsets.UTF_8)
+      )
+    );
+
+    final var output =
+      this.directory.resolve("nested")
+        .resolve("output")
+        .toAbsolutePath();
+
+    assertThrows(NException.class, () -> {
+      this.inventory.runtimeUnpack(runtime, output, (file, hash) -> {
+      });
+    });
+    assertFalse(Files.exists(this.directory.resolve("escaped")));
+    assertFalse(Files.exists(output.resolve("release")));
+  }
+
+  private void checkUnpackFiltered(
+    final NRuntimeArchiveType archiveType)
+    throws Exception
+  {
+    final var runtime = localRuntime(archiveType);
+
+    final var files = new TreeMap<String, byte[]>();
+    for (final var name : List.of(
+      "jdk-17/bin/java",
+      "jdk-17/bin/javac",
+      "jdk-17/demo/x/Demo.java",
+      "jdk-17/include/jni.h",
+      "jdk-17/lib/modules",
+      "jdk-17/lib/src.zip",
+      "jdk-17/man/man1/java.1",
+      "jdk-17/release")) {
+      files.put(name, name.getBytes(StandardCharsets.UTF_8));
+    }
+    this.writeArchive(runtime, files);
+
+    final var output0 =
+      this.directory.resolve("output0").toAbsolutePath();
+    final var hashes0 =
+      new ConcurrentHashMap<Path, String>();
+
+    this.inventory.runtimeUnpack(
+      runtime,
+      output0,
+      new NRuntimeUnpackFilter(
+        List.of(),
+        List.of("man", "demo/**", "include/", "bin/javac")
+      ),
+      hashes0::put
+    );
+
+    assertEquals(
+      Set.of(
+        output0.resolve("bin/java"),
+        output0.resolve("lib/modules"),
+        output0.resolve("release")
+      ),
+      hashes0.keySet()
+    );
+    assertFalse(Files.exists(output0.resolve("bin/javac")));
+    assertFalse(Files.exists(output0.resolve("man")));
+    assertFalse(Files.exists(output0.resolve("demo")));
+    assertFalse(Files.exists(output0.resolve("include")));
+
+    /*
+     * Differently filtered trees are extracted separately.
+     */
+
+    final var output1 =
+      this.directory.resolve("output1").toAbsolutePath();
+    final var hashes1 =
+      new ConcurrentHashMap<Path, String>();
+
+    this.inventory.runtimeUnpack(
+      runtime,
+      output1,
+      new NRuntimeUnpackFilter(List.of("bin/*", "release"), List.of()),
+      hashes1::put
+    );
+
+    assertEquals(
+      Set.of(
+        output1.resolve("bin/java"),
+        output1.resolve("bin/javac"),
+        output1.resolve("release")
+      ),
+      hashes1.keySet()
+    );
+    assertFalse(Files.exists(output1.resolve("lib")));
+  }
+
+  /**
+   * Unpack filters select the files unpacked from a tar.gz runtime.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryUnpackFilteredTarGZ()
+    throws Exception
+  {
+    this.checkUnpackFiltered(NRuntimeArchiveType.RUNTIME_ARCHIVE_TAR_GZ);
+  }
+
+  /**
+   * Unpack filters select the files unpacked from a zip runtime.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryUnpackFilteredZip()
+    throws Exception
+  {
+    this.checkUnpackFiltered(NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP);
+  }
+
+  /**
+   * Unpack filters reject empty and malformed rules.
+   */
+
+  @Test
+  public void testInventoryUnpackFilterInvalid()
+  {
+    assertThrows(IllegalArgumentException.class, () -> {
+      new NRuntimeUnpackFilter(List.of(""), List.of());
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      new NRuntimeUnpackFilter(List.of(), List.of("bin/{java"));
+    });
+    assertTrue(NRuntimeUnpackFilter.all().isEmpty());
+  }
+
+  /**
+   * Unpacking a runtime a second time reuses the extracted tree, and
+   * deleting the runtime deletes the extracted tree.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryUnpackCached()
+    throws Exception
+  {
+    final var runtime =
+      localRuntime(NRuntimeArchiveType.RUNTIME_ARCHIVE_TAR_GZ);
+    final var archive =
+      this.writeArchive(runtime);
+
+    final var output0 =
+      this.directory.resolve("output0").toAbsolutePath();
+    final var output1 =
+      this.directory.resolve("output1").toAbsolutePath();
+
+    final var hashes0 = new ConcurrentHashMap<Path, String>();
+    this.inventory.runtimeUnpack(runtime, output0, hashes0::put);
+
+    /*
+     * Replace the archive with garbage; the second unpack can only succeed
+     * if it does not read the archive.
+     */
+
+    Files.writeString(archive, "Not an archive.");
+
+    final var hashes1 = new ConcurrentHashMap<Path, String>();
+    this.inventory.runtimeUnpack(runtime, output1, hashes1::put);
+
+    assertEquals(hashes0.size(), hashes1.size());
+    for (final var entry : hashes0.entrySet()) {
+      final var relative = output0.relativize(entry.getKey());
+      final var other = output1.resolve(relative.toString());
+      assertEquals(entry.getValue(), hashes1.get(other));
+      assertArrayEquals(
+        Files.readAllBytes(entry.getKey()),
+        Files.readAllBytes(other)
+      );
+    }
+    assertFalse(Files.exists(output1.resolve("lib/src.zip")));
+
+    final var extracted =
+      this.directory.resolve("runtimes")
+        .resolve(runtime.id() + ".rtx");
+
+    assertTrue(Files.isDirectory(extracted));
+    this.inventory.runtimeDelete(runtime);
+    assertFalse(Files.exists(extracted));
+  }
+
+  /**
+   * Relinking a runtime a second time reuses the linked image.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryRelinkCached()
+    throws Exception
+  {
+    final var jmod =
+      Path.of(System.getProperty("java.home"))
+        .resolve("jmods")
+        .resolve("java.base.jmod");
+
+    assumeTrue(
+      Files.isRegularFile(jmod),
+      "The current JDK must have a java.base.jmod file."
+    );
+
+    final var runtime =
+      localRuntime(NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP);
+
+    this.writeArchive(
+      runtime,
+      Map.of(
+        "jdk/release", "release".getBytes(StandardCharsets.UTF_8),
+        "jdk/jmods/java.base.jmod", Files.readAllBytes(jmod)
+      )
+    );
+
+    final var output0 =
+      this.directory.resolve("output0").toAbsolutePath();
+    final var output1 =
+      this.directory.resolve("output1").toAbsolutePath();
+
+    final var hashes0 = new ConcurrentHashMap<Path, String>();
+    this.inventory.runtimeUnpackAndRelink(
+      runtime, output0, Set.of("java.base"), hashes0::put);
+    final var hashes1 = new ConcurrentHashMap<Path, String>();
+    this.inventory.runtimeUnpackAndRelink(
+      runtime, output1, Set.of("java.base"), hashes1::put);
+
+    final var modules0 = output0.resolve("lib/modules");
+    final var modules1 = output1.resolve("lib/modules");
+    assertTrue(Files.isRegularFile(modules0));
+    assertArrayEquals(
+      Files.readAllBytes(modules0),
+      Files.readAllBytes(modules1)
+    );
+    assertEquals(NHashing.sha256Of(modules0), hashes0.get(modules0));
+    assertEquals(hashes0.get(modules0), hashes1.get(modules1));
+    assertTrue(Files.isSameFile(modules0, modules1));
+    assertFalse(Files.exists(output0.resolve("jmods")));
+
+    final var extracted =
+      this.directory.resolve("runtimes")
+        .resolve(runtime.id() + ".rtx");
+
+    try (var list = Files.list(extracted)) {
+      assertEquals(
+        1L,
+        list.filter(p -> p.getFileName().toString().startsWith("jlink-"))
+          .count()
+      );
+    }
+  }
+
+  /**
+   * Relinking a runtime extracts only the jmod files of the requested
+   * modules and the modules that they require.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryRelinkJmodsOnly()
+    throws Exception
+  {
+    final var jmods =
+      Path.of(System.getProperty("java.home"))
+        .resolve("jmods");
+
+    final var names =
+      List.of("java.base", "java.logging", "java.sql", "java.xml");
+    for (final var name : names) {
+      assumeTrue(
+        Files.isRegularFile(jmods.resolve(name + ".jmod")),
+        "The current JDK must have a %s.jmod file.".formatted(name)
+      );
+    }
+
+    final var runtime =
+      localRuntime(NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP);
+
+    final var files = new TreeMap<String, byte[]>();
+    files.put("jdk/release", "release".getBytes(StandardCharsets.UTF_8));
+    files.put("jdk/bin/java", "java".getBytes(StandardCharsets.UTF_8));
+    for (final var name : names) {
+      files.put(
+        "jdk/jmods/%s.jmod".formatted(name),
+        Files.readAllBytes(jmods.resolve(name + ".jmod"))
+      );
+    }
+    this.writeArchive(runtime, files);
+
+    final var output =
+      this.directory.resolve("output").toAbsolutePath();
+
+    this.inventory.runtimeUnpackAndRelink(
+      runtime, output, Set.of("java.logging"), (path, hash) -> {});
+
+    assertTrue(Files.isRegularFile(output.resolve("lib/modules")));
+
+    final var extracted =
+      this.directory.resolve("runtimes")
+        .resolve(runtime.id() + ".rtx");
+
+    final List<Path> trees;
+    try (var list = Files.list(extracted)) {
+      trees = list.filter(p -> {
+        return !p.getFileName().toString().startsWith("jlink-");
+      }).toList();
+    }
+
+    assertEquals(1, trees.size());
+    final var tree = trees.get(0).resolve("tree");
+    assertFalse(Files.exists(tree.resolve("release")));
+    assertFalse(Files.exists(tree.resolve("bin")));
+
+    try (var list = Files.list(tree.resolve("jmods"))) {
+      assertEquals(
+        List.of("java.base.jmod", "java.logging.jmod"),
+        list.map(p -> p.getFileName().toString())
+          .sorted()
+          .toList()
+      );
+    }
+  }
+
+  private NRuntime partiallyDownloaded(
+    final byte[] partial)
+    throws IOException
+  {
+    final var data = resourceBytesOf("data.bin");
+    final var runtime =
+      localRuntime(
+        NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP,
+        this.server.uri().resolve("/blob.zip"),
+        data.length
+      );
+
+    final var tmp =
+      this.directory.resolve("runtimes")
+        .resolve(runtime.id() + ".rt.tmp");
+
+    Files.createDirectories(tmp.getParent());
+    Files.write(tmp, partial);
+    return runtime;
+  }
+
+  /**
+   * An interrupted download is resumed with a range request.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadResume()
+    throws Exception
+  {
+    final var data =
+      resourceBytesOf("data.bin");
+    final var runtime =
+      this.partiallyDownloaded(Arrays.copyOf(data, 1000));
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withStatus(206)
+      .withHeader("Content-Range", "bytes 1000-65535/65536")
+      .withFixedData(Arrays.copyOfRange(data, 1000, data.length));
+
+    final var download = this.inventory.runtimeDownload(runtime);
+    final var file = download.future().get();
+
+    assertArrayEquals(data, Files.readAllBytes(file));
+    assertEquals(65536L, download.sizeReceived());
+
+    final var request = this.server.requestsReceived().get(0);
+    assertEquals("bytes=1000-", request.headers().get("range"));
+  }
+
+  /**
+   * A server that ignores range requests causes a full download.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadResumeIgnored()
+    throws Exception
+  {
+    final var data =
+      resourceBytesOf("data.bin");
+    final var runtime =
+      this.partiallyDownloaded(new byte[1000]);
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withFixedData(data);
+
+    final var file =
+      this.inventory.runtimeDownload(runtime)
+        .future()
+        .get();
+
+    assertArrayEquals(data, Files.readAllBytes(file));
+    assertEquals(1, this.server.requestsReceived().size());
+  }
+
+  /**
+   * A server that cannot satisfy a range request causes a full download.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadResumeUnsatisfiable()
+    throws Exception
+  {
+    final var data =
+      resourceBytesOf("data.bin");
+    final var runtime =
+      this.partiallyDownloaded(new byte[1000]);
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withStatus(416);
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withFixedData(data);
+
+    final var file =
+      this.inventory.runtimeDownload(runtime)
+        .future()
+        .get();
+
+    assertArrayEquals(data, Files.readAllBytes(file));
+
+    final var requests = this.server.requestsReceived();
+    assertEquals(2, requests.size());
+    assertEquals("bytes=1000-", requests.get(0).headers().get("range"));
+    assertFalse(requests.get(1).headers().containsKey("range"));
+  }
+
+  private NRuntimeInventoryType segmentedInventory(
+    final int segments)
+  {
+    return new NRuntimeInventories()
+      .openWithURI(
+        this.directory,
+        this.server.uri(),
+        NRuntimeInventoryConfiguration.defaults()
+          .withDownloadSegments(segments)
+          .withDownloadSegmentSizeMinimum(1024L)
+      );
+  }
+
+  private NRuntime remoteRuntime()
+  {
+    return localRuntime(
+      NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP,
+      this.server.uri().resolve("/blob.zip"),
+      65536L
+    );
+  }
+
+  /**
+   * A runtime is downloaded as concurrent byte ranges.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadSegmented()
+    throws Exception
+  {
+    final var data = resourceBytesOf("data.bin");
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withStatus(206)
+      .withHeader("Content-Range", "bytes 0-32767/65536")
+      .withFixedData(Arrays.copyOfRange(data, 0, 32768));
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withStatus(206)
+      .withHeader("Content-Range", "bytes 32768-65535/65536")
+      .withFixedData(Arrays.copyOfRange(data, 32768, 65536));
+
+    try (var segmented = this.segmentedInventory(2)) {
+      final var download = segmented.runtimeDownload(this.remoteRuntime());
+      final var file = download.future().get();
+
+      assertArrayEquals(data, Files.readAllBytes(file));
+      assertEquals(65536L, download.sizeReceived());
+    }
+
+    final var requests = this.server.requestsReceived();
+    assertEquals(2, requests.size());
+    assertEquals("bytes=0-32767", requests.get(0).headers().get("range"));
+    assertEquals("bytes=32768-65535", requests.get(1).headers().get("range"));
+  }
+
+  /**
+   * Download buffers that do not divide the runtime size are written
+   * completely, across many buffer boundaries.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadBufferBoundaries()
+    throws Exception
+  {
+    final var data = resourceBytesOf("data.bin");
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withFixedData(data);
+
+    try (var buffered = new NRuntimeInventories()
+      .openWithURI(
+        this.directory,
+        this.server.uri(),
+        NRuntimeInventoryConfiguration.defaults()
+          .withDownloadBufferSize(1000)
+      )) {
+      final var download = buffered.runtimeDownload(this.remoteRuntime());
+      final var file = download.future().get();
+
+      assertArrayEquals(data, Files.readAllBytes(file));
+      assertEquals(65536L, download.sizeReceived());
+    }
+  }
+
+  /**
+   * A byte range response with more data than requested is written only
+   * up to the end of the range.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadSegmentedOverlong()
+    throws Exception
+  {
+    final var data = resourceBytesOf("data.bin");
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withStatus(206)
+      .withHeader("Content-Range", "bytes 0-32767/65536")
+      .withFixedData(Arrays.copyOfRange(data, 0, 40000));
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withStatus(206)
+      .withHeader("Content-Range", "bytes 32768-65535/65536")
+      .withFixedData(Arrays.copyOfRange(data, 32768, 65536));
+
+    try (var segmented = new NRuntimeInventories()
+      .openWithURI(
+        this.directory,
+        this.server.uri(),
+        NRuntimeInventoryConfiguration.defaults()
+          .withDownloadSegments(2)
+          .withDownloadSegmentSizeMinimum(1024L)
+          .withDownloadBufferSize(1000)
+      )) {
+      final var download = segmented.runtimeDownload(this.remoteRuntime());
+      final var file = download.future().get();
+
+      assertArrayEquals(data, Files.readAllBytes(file));
+      assertEquals(65536L, download.sizeReceived());
+    }
+  }
+
+  /**
+   * A server that ignores range requests causes a single stream download.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadSegmentedUnsupported()
+    throws Exception
+  {
+    final var data = resourceBytesOf("data.bin");
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withFixedData(data);
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withFixedData(data);
+
+    try (var segmented = this.segmentedInventory(2)) {
+      final var file =
+        segmented.runtimeDownload(this.remoteRuntime())
+          .future()
+          .get();
+
+      assertArrayEquals(data, Files.readAllBytes(file));
+    }
+
+    final var requests = this.server.requestsReceived();
+    assertEquals(2, requests.size());
+    assertEquals("bytes=0-32767", requests.get(0).headers().get("range"));
+    assertFalse(requests.get(1).headers().containsKey("range"));
+  }
+
+  /**
+   * A short byte range fails the download and discards the partial file.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadSegmentedTruncated()
+    throws Exception
+  {
+    final var data = resourceBytesOf("data.bin");
+    final var runtime = this.remoteRuntime();
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withStatus(206)
+      .withHeader("Content-Range", "bytes 0-32767/65536")
+      .withFixedData(Arrays.copyOfRange(data, 0, 32768));
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withStatus(206)
+      .withHeader("Content-Range", "bytes 32768-65535/65536")
+      .withFixedData(Arrays.copyOfRange(data, 32768, 40000));
+
+    try (var segmented = this.segmentedInventory(2)) {
+      final var ex =
+        assertThrows(ExecutionException.class, () -> {
+          segmented.runtimeDownload(runtime)
+            .future()
+            .get();
+        });
+      LOG.debug("", ex);
+    }
+
+    final var tmp =
+      this.directory.resolve("runtimes")
+        .resolve(runtime.id() + ".rt.tmp");
+    assertEquals(0L, Files.size(tmp));
+  }
+
+  /**
+   * Downloads use the HTTP executor supplied by the caller.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadHttpExecutor()
+    throws Exception
+  {
+    final var data = resourceBytesOf("data.bin");
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withFixedData(data);
+
+    final var executed = new AtomicInteger();
+    final var executor = Executors.newCachedThreadPool();
+    try {
+      final var configuration =
+        NRuntimeInventoryConfiguration.defaults()
+          .withHttpVersion(HttpClient.Version.HTTP_1_1)
+          .withHttpExecutor(command -> {
+            executed.incrementAndGet();
+            executor.execute(command);
+          });
+
+      try (var custom = new NRuntimeInventories()
+        .openWithURI(this.directory, this.server.uri(), configuration)) {
+        final var file =
+          custom.runtimeDownload(this.remoteRuntime())
+            .future()
+            .get();
+        assertArrayEquals(data, Files.readAllBytes(file));
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertTrue(executed.get() > 0);
+  }
+
+  /**
+   * Invalid inventory configurations are rejected.
+   */
+
+  @Test
+  public void testInventoryConfigurationInvalid()
+  {
+    final var defaults =
+      NRuntimeInventoryConfiguration.defaults();
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      defaults.withDownloadSegments(0);
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      defaults.withDownloadSegmentSizeMinimum(0L);
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      defaults.withDownloadConcurrency(0);
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      defaults.withRemoteQueryParallelism(0);
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      defaults.withDownloadBufferSize(0);
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      defaults.withHttpTimeouts(Duration.ZERO, Duration.ofSeconds(1L));
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      defaults.withHttpTimeouts(
+        Duration.ofSeconds(1L),
+        Duration.ofSeconds(-1L)
+      );
+    });
+  }
+
+  /**
+   * Downloads run on the download executor supplied by the caller, and are
+   * rejected once the inventory is closed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadExecutor()
+    throws Exception
+  {
+    final var data = resourceBytesOf("data.bin");
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withFixedData(data);
+
+    final var threads = new ConcurrentHashMap<String, Boolean>();
+    final var executor = Executors.newSingleThreadExecutor(runnable -> {
+      return new Thread(runnable, "download-executor");
+    });
+
+    try {
+      final var configuration =
+        NRuntimeInventoryConfiguration.defaults()
+          .withDownloadConcurrency(1)
+          .withDownloadExecutor(command -> {
+            executor.execute(() -> {
+              threads.put(Thread.currentThread().getName(), Boolean.TRUE);
+              command.run();
+            });
+          });
+
+      try (var custom = new NRuntimeInventories()
+        .openWithURI(this.directory, this.server.uri(), configuration)) {
+        final var file =
+          custom.runtimeDownload(this.remoteRuntime())
+            .future()
+            .get();
+        assertArrayEquals(data, Files.readAllBytes(file));
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(Set.of("download-executor"), threads.keySet());
+  }
+
+  /**
+   * Downloads started after the inventory is closed fail.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadAfterClose()
+    throws Exception
+  {
+    final var closed =
+      new NRuntimeInventories()
+        .openWithURI(this.directory, this.server.uri());
+    closed.close();
+
+    final var ex =
+      assertThrows(ExecutionException.class, () -> {
+        closed.runtimeDownload(this.remoteRuntime())
+          .future()
+          .get();
+      });
+    LOG.debug("", ex);
+  }
+
+  /**
+   * A download that makes no progress does not prevent other runtimes from
+   * being unpacked and deleted concurrently, and concurrent unpacks of the
+   * same runtime produce identical outputs.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryConcurrentStress()
+    throws Exception
+  {
+    final var accepted = new CountDownLatch(1);
+    final var sockets = new ConcurrentLinkedQueue<Socket>();
+
+    try (var stalled =
+           new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      final var acceptor = new Thread(() -> {
+        try {
+          while (true) {
+            sockets.add(stalled.accept());
+            accepted.countDown();
+          }
+        } catch (final IOException e) {
+          LOG.debug("acceptor: ", e);
+        }
+      });
+      acceptor.start();
+
+      final var stalledRuntime =
+        localRuntime(
+          "00000000000000000000000000000000",
+          NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP,
+          URI.create(
+            "http://127.0.0.1:%d/blob.zip".formatted(
+              Integer.valueOf(stalled.getLocalPort()))),
+          65536L
+        );
+
+      final var download =
+        this.inventory.runtimeDownload(stalledRuntime);
+      assertTrue(accepted.await(30L, TimeUnit.SECONDS));
+
+      final var runtimeCount = 8;
+      final var runtimes = new ArrayList<NRuntime>();
+      for (int index = 0; index < runtimeCount; ++index) {
+        final var runtime =
+          localRuntime(
+            "%032x".formatted(Integer.valueOf(index + 1)),
+            index % 2 == 0
+              ? NRuntimeArchiveType.RUNTIME_ARCHIVE_TAR_GZ
+              : NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP,
+            URI.create("http://www.example.com/"),
+            100L
+          );
+        this.writeArchive(runtime);
+        runtimes.add(runtime);
+      }
+
+      final var tasks = new ArrayList<Callable<Path>>();
+      for (int round = 0; round < 4; ++round) {
+        for (int index = 0; index < runtimeCount; ++index) {
+          final var runtime = runtimes.get(index);
+          final var output =
+            this.directory.resolve("stress")
+              .resolve("%d-%d".formatted(
+                Integer.valueOf(round),
+                Integer.valueOf(index)))
+              .toAbsolutePath();
+
+          tasks.add(() -> {
+            this.inventory.runtimeUnpack(runtime, output);
+            return output;
+          });
+        }
+      }
+
+      final var executor = Executors.newFixedThreadPool(runtimeCount);
+      try {
+        final var results =
+          executor.invokeAll(tasks, 60L, TimeUnit.SECONDS);
+        for (final var result : results) {
+          final var output = result.get();
+          assertEquals(
+            "java",
+            Files.readString(output.resolve("bin/java"))
+          );
+        }
+      } finally {
+        executor.shutdown();
+      }
+
+      for (final var runtime : runtimes) {
+        this.inventory.runtimeDelete(runtime);
+      }
+
+      assertFalse(download.future().isDone());
+
+      stalled.close();
+      acceptor.join();
+      for (final var socket : sockets) {
+        socket.close();
+      }
+
+      assertThrows(ExecutionException.class, () -> {
+        download.future().get(60L, TimeUnit.SECONDS);
+      });
+    }
+  }
+
+  /**
+   * Interrupting a download that is waiting for data cancels the transfer
+   * at once, closing the connection rather than leaving it open until more
+   * data arrives.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadInterruptedReleasesConnection()
+    throws Exception
+  {
+    final var executor = Executors.newSingleThreadExecutor();
+    final var configuration =
+      NRuntimeInventoryConfiguration.defaults()
+        .withDownloadExecutor(executor);
+
+    try (var stalled =
+           new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+         var custom = new NRuntimeInventories()
+           .openWithURI(this.directory, this.server.uri(), configuration)) {
+
+      final var runtime =
+        localRuntime(
+          "00000000000000000000000000000001",
+          NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP,
+          URI.create(
+            "http://127.0.0.1:%d/blob.zip".formatted(
+              Integer.valueOf(stalled.getLocalPort()))),
+          65536L
+        );
+
+      final var download = custom.runtimeDownload(runtime);
+      try (var socket = stalled.accept()) {
+        socket.setSoTimeout(30_000);
+
+        final var input = socket.getInputStream();
+        final var request = new StringBuilder();
+        while (!request.toString().endsWith("\r\n\r\n")) {
+          request.append((char) input.read());
+        }
+
+        final var output = socket.getOutputStream();
+        output.write(
+          "HTTP/1.1 200 OK\r\nContent-Length: 65536\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII)
+        );
+        output.write(new byte[1024]);
+        output.flush();
+
+        while (download.sizeReceived() < 1024L) {
+          Thread.sleep(10L);
+        }
+
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(30L, TimeUnit.SECONDS));
+
+        try {
+          assertEquals(-1, input.read());
+        } catch (final SocketException e) {
+          LOG.debug("connection reset: ", e);
+        }
+      }
+
+      assertThrows(ExecutionException.class, () -> {
+        download.future().get(30L, TimeUnit.SECONDS);
+      });
+    }
+  }
+
+  /**
+   * Concurrent downloads of the same runtime share one transfer.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadCoalesced()
+    throws Exception
+  {
+    final var data = resourceBytesOf("data.bin");
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withFixedData(data);
+
+    /*
+     * Downloads are held until both requests have been made, so that the
+     * first download cannot complete before the second request.
+     */
+
+    final var held = new ConcurrentLinkedQueue<Runnable>();
+    final var configuration =
+      NRuntimeInventoryConfiguration.defaults()
+        .withDownloadExecutor(held::add);
+
+    try (var custom = new NRuntimeInventories()
+      .openWithURI(this.directory, this.server.uri(), configuration)) {
+      final var runtime = this.remoteRuntime();
+      final var download0 = custom.runtimeDownload(runtime);
+      final var download1 = custom.runtimeDownload(runtime);
+
+      assertSame(download0, download1);
+      assertSame(download0.future(), download1.future());
+      assertEquals(1, held.size());
+
+      final var runner = new Thread(held.poll());
+      runner.start();
+      final var file = download0.future().get();
+      runner.join();
+      assertArrayEquals(data, Files.readAllBytes(file));
+
+      final var download2 = custom.runtimeDownload(runtime);
+      assertNotSame(download0, download2);
+      assertEquals(1, held.size());
+      held.poll().run();
+      assertEquals(file, download2.future().get());
+    }
+
+    assertEquals(1, this.server.requestsReceived().size());
+  }
+
+  /**
+   * Subscribers receive pushed progress, ending with a completed value that
+   * arrives before the download's future completes.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryDownloadProgressPushed()
+    throws Exception
+  {
+    final var data = resourceBytesOf("data.bin");
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withFixedData(data);
+
+    final var held = new ConcurrentLinkedQueue<Runnable>();
+    final var configuration =
+      NRuntimeInventoryConfiguration.defaults()
+        .withDownloadExecutor(held::add);
+
+    try (var custom = new NRuntimeInventories()
+      .openWithURI(this.directory, this.server.uri(), configuration)) {
+      final var runtime = this.remoteRuntime();
+      final var download = custom.runtimeDownload(runtime);
+
+      final var received =
+        new ConcurrentLinkedQueue<NRuntimeDownloadProgress>();
+      final var closed =
+        new ConcurrentLinkedQueue<NRuntimeDownloadProgress>();
+      download.subscribe(Duration.ZERO, received::add);
+      download.subscribe(Duration.ZERO, closed::add).close();
+
+      held.poll().run();
+      assertTrue(download.future().isDone());
+      download.future().get();
+
+      final var progress = List.copyOf(received);
+      assertFalse(progress.isEmpty());
+      assertTrue(closed.isEmpty());
+
+      final var last = progress.get(progress.size() - 1);
+      assertTrue(last.completed());
+      assertEquals(65536L, last.sizeReceived());
+      assertEquals(1.0, last.progress());
+      assertEquals(
+        1L,
+        progress.stream().filter(NRuntimeDownloadProgress::completed).count()
+      );
+
+      long previous = 0L;
+      for (final var value : progress) {
+        assertTrue(value.sizeReceived() >= previous);
+        previous = value.sizeReceived();
+      }
+
+      final var late = new ConcurrentLinkedQueue<NRuntimeDownloadProgress>();
+      download.subscribe(Duration.ofHours(1L), late::add);
+      assertEquals(1, late.size());
+      assertTrue(late.peek().completed());
+    }
+  }
+
+  private NRuntime catalogued()
+    throws IOException
+  {
+    final var runtime = this.remoteRuntime();
+    writeRuntimeProperties(
+      runtime,
+      this.directory.resolve("catalog")
+        .resolve(runtime.id() + ".rtc")
+    );
+    return runtime;
+  }
+
+  /**
+   * Write a catalog entry for a query for Temurin 17 on Linux x86_64,
+   * returning the runtimes with the given ids.
+   */
+
+  private void writeCatalogQuery(
+    final String... ids)
+    throws Exception
+  {
+    final var query =
+      "version=1;os=linux;arch=x86_64;dist=temurin;jdk=17";
+    final var key =
+      HexFormat.of()
+        .formatHex(
+          MessageDigest.getInstance("SHA-256")
+            .digest(query.getBytes(StandardCharsets.UTF_8)))
+        .substring(0, 16);
+
+    final var file =
+      this.directory.resolve("catalog")
+        .resolve("query-" + key + ".properties");
+
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, "runtimes=" + String.join(",", ids) + "\n");
+  }
+
+  private static List<NRuntime> queryTemurin17(
+    final NRuntimeInventoryType inventory)
+    throws NException
+  {
+    return inventory.runtimesAvailableRemotely(
+      List.of(NOperatingSystem.linux()),
+      List.of(NArchitecture.x86_64()),
+      List.of(new NRuntimeDistribution("temurin")),
+      17
+    );
+  }
+
+  private static void writeRuntimeProperties(
+    final NRuntime runtime,
+    final Path file)
+    throws IOException
+  {
+    Files.createDirectories(file.getParent());
+    Files.writeString(
+      file,
+      String.join(
+        "\n",
+        "architecture=" + runtime.architecture().name(),
+        "archiveType=" + runtime.archiveType().name(),
+        "distribution=" + runtime.distribution().name(),
+        "id=" + runtime.id(),
+        "operatingSystem=" + runtime.operatingSystem().name(),
+        "size=" + runtime.size(),
+        "uri=" + runtime.source(),
+        "version=" + runtime.version(),
+        "versionText=" + runtime.versionText(),
+        ""
+      )
+    );
+  }
+
+  /**
+   * An offline inventory finds runtimes in the catalog without contacting
+   * the remote API.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryCatalogOffline()
+    throws Exception
+  {
+    final var runtime = this.catalogued();
+    final var configuration =
+      NRuntimeInventoryConfiguration.defaults()
+        .withOffline(true)
+        .withCatalogTimeToLive(Duration.ZERO);
+
+    try (var offline = new NRuntimeInventories()
+      .openWithURI(this.directory, this.server.uri(), configuration)) {
+      assertEquals(runtime, offline.runtimeFind(runtime.id()));
+
+      assertThrows(NException.class, () -> {
+        offline.runtimeFind("ffffffffffffffffffffffffffffffff");
+      });
+      assertThrows(NException.class, () -> {
+        offline.runtimesAvailableRemotely(
+          List.of(NOperatingSystem.linux()),
+          List.of(NArchitecture.x86_64()),
+          List.of(new NRuntimeDistribution("temurin")),
+          17
+        );
+      });
+    }
+
+    assertEquals(0, this.server.requestsReceived().size());
+  }
+
+  /**
+   * A fresh catalog entry is used without contacting the remote API.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryCatalogFresh()
+    throws Exception
+  {
+    final var runtime = this.catalogued();
+    assertEquals(runtime, this.inventory.runtimeFind(runtime.id()));
+    assertEquals(0, this.server.requestsReceived().size());
+  }
+
+  /**
+   * A stale catalog entry is used if the remote API cannot answer.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryCatalogStaleFallback()
+    throws Exception
+  {
+    final var runtime = this.catalogued();
+    final var configuration =
+      NRuntimeInventoryConfiguration.defaults()
+        .withCatalogTimeToLive(Duration.ZERO);
+
+    try (var stale = new NRuntimeInventories()
+      .openWithURI(this.directory, this.server.uri(), configuration)) {
+      assertEquals(runtime, stale.runtimeFind(runtime.id()));
+    }
+  }
+
+  /**
+   * A stale catalog entry answers a remote query if the remote API fails,
+   * and the entry is kept.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryCatalogQueryStaleFallback()
+    throws Exception
+  {
+    final var runtime = this.catalogued();
+    this.writeCatalogQuery(runtime.id());
+
+    this.server.addResponse()
+      .forPath("//disco/v3.0/distributions")
+      .withStatus(500);
+    this.server.addResponse()
+      .forPath("//disco/v3.0/packages")
+      .withStatus(500);
+
+    final var configuration =
+      NRuntimeInventoryConfiguration.defaults()
+        .withCatalogTimeToLive(Duration.ZERO);
+
+    try (var stale = new NRuntimeInventories()
+      .openWithURI(this.directory, this.server.uri(), configuration)) {
+      assertEquals(List.of(runtime), queryTemurin17(stale));
+    }
+
+    final var offline =
+      NRuntimeInventoryConfiguration.defaults()
+        .withOffline(true);
+
+    try (var cached = new NRuntimeInventories()
+      .openWithURI(this.directory, this.server.uri(), offline)) {
+      assertEquals(List.of(runtime), queryTemurin17(cached));
+    }
+  }
+
+  /**
+   * Catalog entries that name invalid runtime ids are not used, and files
+   * outside of the catalog are not read.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryCatalogInvalidId()
+    throws Exception
+  {
+    final var runtime = this.remoteRuntime();
+    writeRuntimeProperties(runtime, this.directory.resolve("outside.rtc"));
+    this.writeCatalogQuery("../outside");
+
+    final var configuration =
+      NRuntimeInventoryConfiguration.defaults()
+        .withOffline(true);
+
+    try (var offline = new NRuntimeInventories()
+      .openWithURI(this.directory, this.server.uri(), configuration)) {
+      assertThrows(NException.class, () -> queryTemurin17(offline));
+    }
+    assertEquals(0, this.server.requestsReceived().size());
+  }
+
+  /**
+   * Local runtimes are found by id without scanning the directory, and
+   * deleted runtimes leave the index.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryLocalIndex()
+    throws Exception
+  {
+    final var runtimes = this.directory.resolve("runtimes");
+    final var runtime0 =
+      localRuntime(
+        "%032x".formatted(Integer.valueOf(1)),
+        NRuntimeArchiveType.RUNTIME_ARCHIVE_ZIP,
+        URI.create("http://www.example.com/"),
+        100L
+      );
+    final var runtime1 =
+      localRuntime(
+        "%032x".formatted(Integer.valueOf(2)),
+        NRuntimeArchiveType.RUNTIME_ARCHIVE_TAR_GZ,
+        URI.create("http://www.example.com/"),
+        100L
+      );
+
+    writeRuntimeProperties(runtime0, runtimes.resolve(runtime0.id() + ".rti"));
+    assertEquals(List.of(runtime0), this.inventory.runtimesAvailableLocally());
+
+    /*
+     * A runtime added by another process is not seen by listing the
+     * already-scanned index, but is found by id.
+     */
+
+    writeRuntimeProperties(runtime1, runtimes.resolve(runtime1.id() + ".rti"));
+    assertEquals(List.of(runtime0), this.inventory.runtimesAvailableLocally());
+    assertEquals(runtime1, this.inventory.runtimeFind(runtime1.id()));
+    assertEquals(
+      List.of(runtime0, runtime1),
+      this.inventory.runtimesAvailableLocally()
+    );
+
+    this.inventory.runtimeDelete(runtime0);
+    assertEquals(List.of(runtime1), this.inventory.runtimesAvailableLocally());
+    assertEquals(0, this.server.requestsReceived().size());
+  }
+
+  /**
+   * Ids that are not runtime ids are rejected before any file is read, so
+   * that an id cannot name a file outside of the inventory.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryFindInvalidId()
+    throws Exception
+  {
+    final var outside = this.directory.resolve("outside.rti");
+    Files.writeString(outside, "not a runtime");
+
+    final var ex =
+      assertThrows(NException.class, () -> {
+        this.inventory.runtimeFind("../outside");
+      });
+
+    assertEquals(errorRuntimeIdInvalid(), ex.errorCode());
+    assertTrue(Files.isRegularFile(outside));
+    assertEquals(0, this.server.requestsReceived().size());
+  }
+
+  /**
+   * A downloaded runtime is added to the index.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInventoryLocalIndexDownloaded()
+    throws Exception
+  {
+    final var data = resourceBytesOf("data.bin");
+
+    this.server.addResponse()
+      .forPath("/blob.zip")
+      .withFixedData(data);
+
+    assertEquals(List.of(), this.inventory.runtimesAvailableLocally());
+
+    final var runtime = this.remoteRuntime();
+    this.inventory.runtimeDownload(runtime)
+      .future()
+      .get();
+
+    assertEquals(List.of(runtime), this.inventory.runtimesAvailableLocally());
+  }
 }